@@ -0,0 +1,71 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+// Floods the write endpoints while a smaller group of threads reads; compare the read p99 with admission on and off
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AdmissionBenchmark {
+
+    private static final String NEW_SPACESHIP = "{\"name\":\"Benchmark\",\"fuel\":50}";
+
+    @Param({"false", "true"})
+    boolean admission;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI spaceships;
+    private URI firstSpaceship;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = BenchmarkContexts.startWebServerWithEmbeddedDatabase(
+                "continuity.admission.enabled=" + admission,
+                // Every benchmark thread shares one client address, so lift the per-client rate and measure shedding alone
+                "continuity.admission.permits-per-second=1000000",
+                "spring.datasource.hikari.maximum-pool-size=20");
+        var port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        client = HttpClient.newHttpClient();
+        spaceships = URI.create("http://localhost:" + port + "/spaceship");
+        var created = client.send(post(), HttpResponse.BodyHandlers.ofString());
+        firstSpaceship = URI.create(spaceships + "/" + created.body().replaceAll(".*\"id\":(\\d+).*", "$1"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(12)
+    public int write() throws Exception {
+        return client.send(post(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public String read() throws Exception {
+        return client.send(HttpRequest.newBuilder(firstSpaceship).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private HttpRequest post() {
+        return HttpRequest.newBuilder(spaceships)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(NEW_SPACESHIP))
+                .build();
+    }
+}
@@ -0,0 +1,38 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.ContinuityWeek4Application;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+final class BenchmarkContexts {
+
+    private BenchmarkContexts() {
+    }
+
+    // Boots the application against an in-memory H2 database with caching and read coalescing off so every call reaches the DB
+    static ConfigurableApplicationContext startWithEmbeddedDatabase(String... extraProperties) {
+        return start(WebApplicationType.NONE, extraProperties);
+    }
+
+    // Same as above but behind a real servlet container on a random port, for benchmarks that need the filter chain
+    static ConfigurableApplicationContext startWebServerWithEmbeddedDatabase(String... extraProperties) {
+        return start(WebApplicationType.SERVLET, extraProperties);
+    }
+
+    private static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... extraProperties) {
+        return new SpringApplicationBuilder(ContinuityWeek4Application.class)
+                .web(webApplicationType)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:continuity;DB_CLOSE_DELAY=-1",
+                        "spring.datasource.driver-class-name=org.h2.Driver",
+                        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "spring.jpa.hibernate.ddl-auto=create",
+                        "spring.cache.type=none",
+                        "continuity.single-flight.enabled=false",
+                        "server.port=0",
+                        "logging.level.root=WARN")
+                .properties(extraProperties)
+                .run();
+    }
+}
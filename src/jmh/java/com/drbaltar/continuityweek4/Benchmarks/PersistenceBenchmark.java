@@ -0,0 +1,147 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Controllers.CrewmemberController;
+import com.drbaltar.continuityweek4.Controllers.SpaceshipController;
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1000"})
+    int tableSize;
+
+    private ConfigurableApplicationContext context;
+    private SpaceshipRepository spaceshipRepository;
+    private CrewmemberRepository crewmemberRepository;
+    private SpaceshipController spaceshipController;
+    private CrewmemberController crewmemberController;
+    private Long firstSpaceshipId;
+    private Long firstCrewmemberId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContexts.startWithEmbeddedDatabase();
+        spaceshipRepository = context.getBean(SpaceshipRepository.class);
+        crewmemberRepository = context.getBean(CrewmemberRepository.class);
+        spaceshipController = context.getBean(SpaceshipController.class);
+        crewmemberController = context.getBean(CrewmemberController.class);
+
+        var spaceships = new ArrayList<Spaceship>(tableSize);
+        for (int i = 0; i < tableSize; i++)
+            spaceships.add(newSpaceship());
+        spaceshipRepository.saveAll(spaceships);
+        firstSpaceshipId = spaceships.get(0).getId();
+
+        var crewmembers = new ArrayList<Crewmember>(tableSize);
+        for (int i = 0; i < tableSize; i++)
+            crewmembers.add(newCrewmember());
+        crewmemberRepository.saveAll(crewmembers);
+        firstCrewmemberId = crewmembers.get(0).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Spaceship saveSpaceship() {
+        return spaceshipRepository.save(newSpaceship());
+    }
+
+    @Benchmark
+    public Crewmember saveCrewmember() {
+        return crewmemberRepository.save(newCrewmember());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Spaceship> saveSpaceshipsOneAtATime() {
+        var saved = new ArrayList<Spaceship>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++)
+            saved.add(spaceshipController.saveSpaceshipToDB(newSpaceship()));
+        return saved;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Iterable<Spaceship> saveSpaceshipsInBatch() {
+        var spaceships = new ArrayList<Spaceship>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++)
+            spaceships.add(newSpaceship());
+        return spaceshipController.saveSpaceshipsInBatch(spaceships);
+    }
+
+    @Benchmark
+    public Optional<Spaceship> findSpaceshipById() {
+        return spaceshipRepository.findById(randomId(firstSpaceshipId));
+    }
+
+    @Benchmark
+    public Optional<Crewmember> findCrewmemberById() {
+        return crewmemberRepository.findById(randomId(firstCrewmemberId));
+    }
+
+    @Benchmark
+    public Iterable<Spaceship> findAllSpaceships() {
+        return spaceshipRepository.findAll();
+    }
+
+    @Benchmark
+    public Iterable<Crewmember> findAllCrewmembers() {
+        return crewmemberRepository.findAll();
+    }
+
+    @Benchmark
+    public ResponseEntity<Spaceship> patchSpaceshipFuel() {
+        var updatedFields = new HashMap<String, String>();
+        updatedFields.put("fuel", String.valueOf(ThreadLocalRandom.current().nextInt(100)));
+        return spaceshipController.updateSpaceshipFieldsByID(randomId(firstSpaceshipId), updatedFields, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<Crewmember> patchCrewmemberMorale() {
+        var updatedFields = new HashMap<String, String>();
+        updatedFields.put("morale", String.valueOf(ThreadLocalRandom.current().nextInt(100)));
+        return crewmemberController.updateCrewmemberFieldsByID(randomId(firstCrewmemberId), updatedFields, null);
+    }
+
+    // Ids from the seeded range; saves made during the run only ever append above it
+    private Long randomId(Long firstId) {
+        return firstId + ThreadLocalRandom.current().nextInt(tableSize);
+    }
+
+    private static Spaceship newSpaceship() {
+        var spaceship = new Spaceship();
+        spaceship.setName("Benchmark spaceship");
+        spaceship.setFuel(100);
+        return spaceship;
+    }
+
+    private static Crewmember newCrewmember() {
+        var crewmember = new Crewmember();
+        crewmember.setName("Benchmark crewmember");
+        crewmember.setMorale(100);
+        return crewmember;
+    }
+}
@@ -0,0 +1,87 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Controllers.CrewmemberController;
+import com.drbaltar.continuityweek4.Controllers.SpaceshipController;
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    // Low-fuel and low-morale rows are spread evenly, with the same count at every table size, so each search
+    // returns a full page of the same length and only the cost of finding the rows varies
+    private static final int MATCHING_ROWS = 100;
+
+    // Search latency should stay flat across table sizes while the indexes are in place
+    @Param({"1000", "10000", "100000"})
+    int tableSize;
+
+    private ConfigurableApplicationContext context;
+    private SpaceshipController spaceshipController;
+    private CrewmemberController crewmemberController;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContexts.startWithEmbeddedDatabase();
+        spaceshipController = context.getBean(SpaceshipController.class);
+        crewmemberController = context.getBean(CrewmemberController.class);
+        var spaceshipRepository = context.getBean(SpaceshipRepository.class);
+        var crewmemberRepository = context.getBean(CrewmemberRepository.class);
+
+        var spaceships = new ArrayList<Spaceship>();
+        var crewmembers = new ArrayList<Crewmember>();
+        int matchEvery = tableSize / MATCHING_ROWS;
+        for (int i = 0; i < tableSize; i++) {
+            var spaceship = new Spaceship();
+            spaceship.setName("Spaceship %08d".formatted(i));
+            spaceship.setFuel(i % matchEvery == 0 ? 5 : 100);
+            spaceships.add(spaceship);
+
+            var crewmember = new Crewmember();
+            crewmember.setName("Crewmember %08d".formatted(i));
+            crewmember.setMorale(i % matchEvery == 0 ? 5 : 100);
+            crewmembers.add(crewmember);
+            if (spaceships.size() == 10_000) {
+                spaceshipRepository.saveAll(spaceships);
+                crewmemberRepository.saveAll(crewmembers);
+                spaceships.clear();
+                crewmembers.clear();
+            }
+        }
+        spaceshipRepository.saveAll(spaceships);
+        crewmemberRepository.saveAll(crewmembers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Spaceship> searchSpaceshipsByNamePrefix() {
+        return spaceshipController.searchSpaceships("Spaceship 0000012", null, 100, 0L);
+    }
+
+    @Benchmark
+    public List<Spaceship> searchSpaceshipsWithFuelBelow() {
+        return spaceshipController.searchSpaceships(null, 10, 100, 0L);
+    }
+
+    @Benchmark
+    public List<Crewmember> searchCrewmembersWithMoraleBelow() {
+        return crewmemberController.searchCrewmembers(10, 100, 0L);
+    }
+}
@@ -0,0 +1,124 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Models.SpaceshipView;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1000"})
+    int listSize;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private Spaceship spaceship;
+    private Crewmember crewmember;
+    private List<Spaceship> spaceships;
+    private List<Crewmember> crewmembers;
+    private List<SpaceshipView> spaceshipViews;
+    private byte[] spaceshipJSON;
+    private byte[] crewmemberJSON;
+    private byte[] spaceshipListJSON;
+    private byte[] crewmemberListJSON;
+
+    @Setup
+    public void setUp() throws IOException {
+        spaceships = new ArrayList<>(listSize);
+        spaceshipViews = new ArrayList<>(listSize);
+        crewmembers = new ArrayList<>(listSize);
+        for (long i = 1; i <= listSize; i++) {
+            var testSpaceship = new Spaceship();
+            testSpaceship.setId(i);
+            testSpaceship.setName("Spaceship %d".formatted(i));
+            testSpaceship.setFuel(100);
+            spaceships.add(testSpaceship);
+            spaceshipViews.add(new SpaceshipView(i, testSpaceship.getName(), testSpaceship.getFuel(), 0));
+
+            var testCrewmember = new Crewmember();
+            testCrewmember.setId(i);
+            testCrewmember.setName("Crewmember %d".formatted(i));
+            testCrewmember.setMorale(100);
+            testCrewmember.setSpaceshipId(i);
+            crewmembers.add(testCrewmember);
+        }
+        spaceship = spaceships.get(0);
+        crewmember = crewmembers.get(0);
+        spaceshipJSON = objectMapper.writeValueAsBytes(spaceship);
+        crewmemberJSON = objectMapper.writeValueAsBytes(crewmember);
+        spaceshipListJSON = objectMapper.writeValueAsBytes(spaceships);
+        crewmemberListJSON = objectMapper.writeValueAsBytes(crewmembers);
+    }
+
+    @Benchmark
+    public byte[] serializeSpaceship() throws IOException {
+        return objectMapper.writeValueAsBytes(spaceship);
+    }
+
+    @Benchmark
+    public byte[] serializeCrewmember() throws IOException {
+        return objectMapper.writeValueAsBytes(crewmember);
+    }
+
+    @Benchmark
+    public byte[] serializeSpaceshipList() throws IOException {
+        return objectMapper.writeValueAsBytes(spaceships);
+    }
+
+    @Benchmark
+    public byte[] serializeCrewmemberList() throws IOException {
+        return objectMapper.writeValueAsBytes(crewmembers);
+    }
+
+    // Both list writers stream into a discarding sink, the way GET /spaceship streams into the servlet output stream
+    @Benchmark
+    public void writeSpaceshipListWithObjectMapper() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), spaceships);
+    }
+
+    @Benchmark
+    public void writeSpaceshipListWithStreamingWriter() throws IOException {
+        try (var generator = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            for (var spaceshipView : spaceshipViews)
+                spaceshipView.writeJson(generator);
+            generator.writeEndArray();
+        }
+    }
+
+    @Benchmark
+    public Spaceship deserializeSpaceship() throws IOException {
+        return objectMapper.readValue(spaceshipJSON, Spaceship.class);
+    }
+
+    @Benchmark
+    public Crewmember deserializeCrewmember() throws IOException {
+        return objectMapper.readValue(crewmemberJSON, Crewmember.class);
+    }
+
+    @Benchmark
+    public List<Spaceship> deserializeSpaceshipList() throws IOException {
+        return objectMapper.readValue(spaceshipListJSON, new TypeReference<>() {
+        });
+    }
+
+    @Benchmark
+    public List<Crewmember> deserializeCrewmemberList() throws IOException {
+        return objectMapper.readValue(crewmemberListJSON, new TypeReference<>() {
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// Many clients reading the whole table at once through the buffered array path and the async NDJSON stream;
+// the gc profiler configured in build.gradle reports allocation per read for the memory side of the comparison
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(256)
+public class StreamingBenchmark {
+
+    @Param({"/spaceship", "/spaceship/stream"})
+    String path;
+
+    @Param({"10000"})
+    int tableSize;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI uri;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContexts.startWebServerWithEmbeddedDatabase("server.tomcat.threads.max=200");
+        var spaceships = new ArrayList<Spaceship>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            var spaceship = new Spaceship();
+            spaceship.setName("Spaceship " + i);
+            spaceship.setFuel(i % 101);
+            spaceships.add(spaceship);
+        }
+        context.getBean(SpaceshipRepository.class).saveAll(spaceships);
+        var port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        client = HttpClient.newHttpClient();
+        uri = URI.create("http://localhost:" + port + path);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long readWholeTable() throws Exception {
+        try (var body = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofInputStream()).body()) {
+            return body.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
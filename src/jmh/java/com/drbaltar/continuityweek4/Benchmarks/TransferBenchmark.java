@@ -0,0 +1,86 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Transfer.FleetTransfer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// One full export or import per iteration; run with -p rows=10000000 for the full-size round trip
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx512m"})
+public class TransferBenchmark {
+
+    @Param({"1000000"})
+    int rows;
+
+    private ConfigurableApplicationContext context;
+    private FleetTransfer fleetTransfer;
+    private JdbcTemplate jdbcTemplate;
+    private Path fleetFile;
+    private Path exportFile;
+
+    // The heap cap above is well under the file size at 10M rows, so a run that finishes shows memory stays constant
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = BenchmarkContexts.startWithEmbeddedDatabase();
+        fleetTransfer = context.getBean(FleetTransfer.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        fleetFile = Files.createTempFile("fleet", ".ndjson.gz");
+        exportFile = Files.createTempFile("fleet-export", ".ndjson.gz");
+        writeFleetFile(fleetFile, rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyTables() {
+        jdbcTemplate.execute("truncate table crewmember");
+        jdbcTemplate.execute("delete from spaceship");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        Files.deleteIfExists(fleetFile);
+        Files.deleteIfExists(exportFile);
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        try (var in = new BufferedInputStream(Files.newInputStream(fleetFile))) {
+            var result = fleetTransfer.importFrom(in, FleetTransfer.SPACESHIP, 0);
+            if (!result.complete())
+                throw new IllegalStateException(result.error());
+        }
+        try (var out = new BufferedOutputStream(Files.newOutputStream(exportFile))) {
+            fleetTransfer.export(out, FleetTransfer.SPACESHIP, 0);
+        }
+        return Files.size(exportFile);
+    }
+
+    // Half the rows are spaceships and half their crew, one crewmember per ship
+    private static void writeFleetFile(Path file, int rows) throws IOException {
+        var spaceships = rows / 2;
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024), StandardCharsets.UTF_8)) {
+            for (long id = 1; id <= spaceships; id++)
+                writer.write("{\"type\":\"spaceship\",\"id\":%d,\"name\":\"Spaceship %d\",\"fuel\":%d,\"version\":0}\n"
+                        .formatted(id, id, id % 101));
+            for (long id = 1; id <= rows - spaceships; id++)
+                writer.write("{\"type\":\"crewmember\",\"id\":%d,\"name\":\"Crewmember %d\",\"morale\":%d,\"spaceshipId\":%d,\"version\":0}\n"
+                        .formatted(spaceships + id, id, id % 101, id));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.drbaltar.continuityweek4.Benchmarks;
+
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"json", "cbor", "smile"})
+    String format;
+
+    @Param({"1000"})
+    int listSize;
+
+    private ObjectMapper objectMapper;
+    private List<Spaceship> spaceships;
+    private byte[] encodedSpaceships;
+    private int gzippedSize;
+
+    // JMH reports these next to the timings; they are assigned rather than incremented, so each reads as the size of one payload
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long payloadBytes;
+        public long gzippedBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = switch (format) {
+            case "cbor" -> Jackson2ObjectMapperBuilder.cbor().build();
+            case "smile" -> Jackson2ObjectMapperBuilder.smile().build();
+            default -> Jackson2ObjectMapperBuilder.json().build();
+        };
+        spaceships = new ArrayList<>(listSize);
+        for (long i = 1; i <= listSize; i++) {
+            var testSpaceship = new Spaceship();
+            testSpaceship.setId(i);
+            testSpaceship.setName("Spaceship %d".formatted(i));
+            testSpaceship.setFuel(100);
+            spaceships.add(testSpaceship);
+        }
+        encodedSpaceships = objectMapper.writeValueAsBytes(spaceships);
+        var gzipped = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(encodedSpaceships);
+        }
+        gzippedSize = gzipped.size();
+    }
+
+    @Benchmark
+    public byte[] encodeSpaceshipList(PayloadSize payloadSize) throws IOException {
+        var encoded = objectMapper.writeValueAsBytes(spaceships);
+        payloadSize.payloadBytes = encoded.length;
+        payloadSize.gzippedBytes = gzippedSize;
+        return encoded;
+    }
+
+    @Benchmark
+    public List<Spaceship> decodeSpaceshipList() throws IOException {
+        return objectMapper.readValue(encodedSpaceships, new TypeReference<>() {
+        });
+    }
+}
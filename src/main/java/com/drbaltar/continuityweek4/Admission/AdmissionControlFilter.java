@@ -0,0 +1,87 @@
+package com.drbaltar.continuityweek4.Admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+    // A fleet import holds its request open for minutes by design; timing it would collapse the write limit
+    private static final String IMPORT_PATH = "/import";
+
+    private final ClientRateLimiter rateLimiter;
+    private final Function<HttpServletRequest, String> clientKey;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+    private final Counter rateLimited;
+    private final Counter shed;
+
+    public AdmissionControlFilter(ClientRateLimiter rateLimiter, Function<HttpServletRequest, String> clientKey,
+                                  AdaptiveConcurrencyLimiter writeLimiter, MeterRegistry meterRegistry) {
+        this.rateLimiter = rateLimiter;
+        this.clientKey = clientKey;
+        this.writeLimiter = writeLimiter;
+        this.rateLimited = meterRegistry.counter("admission.rejected", "reason", "rate_limited");
+        this.shed = meterRegistry.counter("admission.rejected", "reason", "shed");
+        meterRegistry.gauge("admission.write.limit", writeLimiter, AdaptiveConcurrencyLimiter::getLimit);
+        meterRegistry.gauge("admission.write.in_flight", writeLimiter, AdaptiveConcurrencyLimiter::getInFlight);
+    }
+
+    // Reads form their own lane: they are never queued behind or counted against the write limit
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return SAFE_METHODS.contains(request.getMethod()) || IMPORT_PATH.equals(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        var waitNanos = rateLimiter.tryAcquire(clientKey.apply(request));
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+            return;
+        }
+        if (!writeLimiter.tryAcquire()) {
+            shed.increment();
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1);
+            return;
+        }
+
+        var start = System.nanoTime();
+        var failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            failed = response.getStatus() >= 500;
+        } finally {
+            writeLimiter.release(System.nanoTime() - start, failed);
+        }
+    }
+
+    // Keys on a header a trusted gateway sets, such as an API key or client id, and on the remote address when it is absent.
+    // Behind a proxy the remote address is only the client's once forwarded headers are applied (server.forward-headers-strategy)
+    public static Function<HttpServletRequest, String> clientKey(String header) {
+        if (header == null || header.isBlank())
+            return HttpServletRequest::getRemoteAddr;
+        return request -> {
+            var value = request.getHeader(header);
+            return value == null || value.isBlank() ? request.getRemoteAddr() : header + ":" + value;
+        };
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds) {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+}
@@ -0,0 +1,46 @@
+package com.drbaltar.continuityweek4.Admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ClientRateLimiter {
+
+    private static final int MAX_TRACKED_CLIENTS = 100_000;
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    // A client idle for longer than the burst tolerance has a full bucket again, so dropping its entry loses nothing
+    private final Cache<String, AtomicLong> theoreticalArrivalTimes;
+
+    public ClientRateLimiter(double permitsPerSecond, int burst) {
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * burst;
+        this.theoreticalArrivalTimes = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofNanos(burstToleranceNanos + emissionIntervalNanos))
+                .maximumSize(MAX_TRACKED_CLIENTS)
+                .build();
+    }
+
+    // Returns 0 when the request is admitted, otherwise the nanoseconds until the client's next permit
+    public long tryAcquire(String client) {
+        return tryAcquire(client, System.nanoTime());
+    }
+
+    // GCRA: one CAS-updated timestamp per client stands in for a token count plus its last refill time
+    long tryAcquire(String client, long now) {
+        var theoreticalArrivalTime = theoreticalArrivalTimes.get(client, key -> new AtomicLong(now));
+        while (true) {
+            var current = theoreticalArrivalTime.get();
+            var next = Math.max(current, now) + emissionIntervalNanos;
+            var wait = next - now - burstToleranceNanos;
+            if (wait > 0)
+                return wait;
+            if (theoreticalArrivalTime.compareAndSet(current, next))
+                return 0;
+        }
+    }
+}
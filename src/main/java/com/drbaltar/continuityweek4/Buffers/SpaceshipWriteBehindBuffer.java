@@ -0,0 +1,198 @@
+package com.drbaltar.continuityweek4.Buffers;
+
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SpaceshipWriteBehindBuffer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpaceshipWriteBehindBuffer.class);
+    private static final String UPDATE_SQL = "update spaceship set name = ?, fuel = ?, version = version + 1 where id = ?";
+
+    private final ConcurrentHashMap<Long, Spaceship> pending = new ConcurrentHashMap<>();
+    // Slots are reserved here before a new ship goes into pending, so concurrent offers can never overfill the buffer
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "spaceship-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache cache;
+    private final TableChangeTokens changeTokens;
+    private final ChangeEventBus eventBus;
+    private final Timer flushTimer;
+    private final Counter missing;
+    private final int capacity;
+    private final int batchSize;
+
+    public SpaceshipWriteBehindBuffer(JdbcTemplate jdbcTemplate, Cache cache, TableChangeTokens changeTokens, ChangeEventBus eventBus,
+                                      MeterRegistry meterRegistry, int capacity, int batchSize, Duration flushInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cache = cache;
+        this.changeTokens = changeTokens;
+        this.eventBus = eventBus;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushTimer = Timer.builder("spaceship.write_behind.flush")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.missing = meterRegistry.counter("spaceship.write_behind.missing");
+        meterRegistry.gauge("spaceship.write_behind.pending", pending, ConcurrentHashMap::size);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Returns false when the buffer is full of other ships, which callers surface as backpressure
+    public boolean offer(Spaceship spaceship) {
+        var id = spaceship.getId();
+        while (true) {
+            // Replacing a report that is still waiting takes no extra room
+            if (pending.computeIfPresent(id, (key, waiting) -> spaceship) != null)
+                break;
+            if (!reserveSlot())
+                return false;
+            if (pending.putIfAbsent(id, spaceship) == null)
+                break;
+            // Another offer for the same ship got in first; give the slot back and replace its report instead
+            reserved.decrementAndGet();
+        }
+        if (reserved.get() >= batchSize && flushRequested.compareAndSet(false, true))
+            flusher.execute(this::flushQuietly);
+        return true;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = reserved.get();
+            if (current >= capacity)
+                return false;
+            if (reserved.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    private Spaceship take(Long id) {
+        var spaceship = pending.remove(id);
+        if (spaceship != null)
+            reserved.decrementAndGet();
+        return spaceship;
+    }
+
+    // Reports that failed or were rolled back go back in even past capacity, since they were already accepted
+    private void restore(Spaceship spaceship) {
+        if (pending.putIfAbsent(spaceship.getId(), spaceship) == null)
+            reserved.incrementAndGet();
+    }
+
+    public synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty())
+            return;
+
+        flushTimer.record(() -> {
+            var batch = new ArrayList<Spaceship>(batchSize);
+            for (var id : pending.keySet()) {
+                var spaceship = take(id);
+                if (spaceship != null)
+                    batch.add(spaceship);
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                write(batch);
+        });
+    }
+
+    // Synchronous writes to these ships call this first, so a PUT accepted earlier can never land on top of them afterwards
+    public synchronized void flush(Collection<Long> ids) {
+        var batch = ids.stream()
+                .map(this::take)
+                .filter(Objects::nonNull)
+                .toList();
+        if (!batch.isEmpty())
+            write(batch);
+    }
+
+    private void write(List<Spaceship> batch) {
+        restoreIfCallerRollsBack(batch);
+        try {
+            var counts = jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(), (statement, spaceship) -> {
+                statement.setString(1, spaceship.getName());
+                statement.setInt(2, spaceship.getFuel());
+                statement.setLong(3, spaceship.getId());
+            });
+            int index = 0;
+            for (var chunk : counts) {
+                for (var count : chunk) {
+                    var spaceship = batch.get(index++);
+                    // A ship deleted, or never created, after its PUT was accepted matches no row and has nothing to announce.
+                    // SUCCESS_NO_INFO means the driver could not tell, so the update is announced rather than lost.
+                    // The written version is only known to the database, so subscribers are told to re-read instead
+                    if (count > 0 || count == Statement.SUCCESS_NO_INFO)
+                        eventBus.publish("spaceship", ChangeEventBus.UPDATED, spaceship.getId(), null);
+                    else
+                        missing.increment();
+                }
+            }
+        } catch (RuntimeException e) {
+            // A newer report that arrived while this batch was in flight must win over the failed one
+            batch.forEach(this::restore);
+            throw e;
+        } finally {
+            batch.forEach(spaceship -> cache.evict(spaceship.getId()));
+            changeTokens.spaceshipsChanged();
+        }
+    }
+
+    // A flush inside the caller's transaction is undone with it, so the reports go back to wait for the next flush
+    private void restoreIfCallerRollsBack(List<Spaceship> batch) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED)
+                    batch.forEach(SpaceshipWriteBehindBuffer.this::restore);
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Write-behind flush failed, {} spaceship updates will be retried", pending.size(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,95 @@
+package com.drbaltar.continuityweek4.Coalescing;
+
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Routing.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+@Aspect
+@Component
+@ConditionalOnProperty(name = "continuity.single-flight.enabled", havingValue = "true", matchIfMissing = true)
+public class RepositorySingleFlight {
+
+    private final SingleFlight spaceshipReads;
+    private final SingleFlight crewmemberReads;
+    private final TableChangeTokens changeTokens;
+    private final Duration listWindow;
+
+    public RepositorySingleFlight(TableChangeTokens changeTokens, MeterRegistry meterRegistry,
+                                  @Value("${continuity.single-flight.list-window:50ms}") Duration listWindow,
+                                  @Value("${continuity.single-flight.join-timeout:2s}") Duration joinTimeout) {
+        this.spaceshipReads = new SingleFlight("spaceship", joinTimeout, meterRegistry);
+        this.crewmemberReads = new SingleFlight("crewmember", joinTimeout, meterRegistry);
+        this.changeTokens = changeTokens;
+        this.listWindow = listWindow;
+    }
+
+    @Around("target(com.drbaltar.continuityweek4.Repositories.SpaceshipRepository) && execution(* find*(..))")
+    public Object coalesceSpaceshipReads(ProceedingJoinPoint joinPoint) throws Throwable {
+        return coalesce(joinPoint, spaceshipReads, changeTokens.spaceshipToken());
+    }
+
+    @Around("target(com.drbaltar.continuityweek4.Repositories.CrewmemberRepository) && execution(* find*(..))")
+    public Object coalesceCrewmemberReads(ProceedingJoinPoint joinPoint) throws Throwable {
+        return coalesce(joinPoint, crewmemberReads, changeTokens.crewmemberToken());
+    }
+
+    // The change token is part of the key, so a read that starts after a committed write on this node never shares an older result
+    private Object coalesce(ProceedingJoinPoint joinPoint, SingleFlight singleFlight, String changeToken) throws Throwable {
+        // A read-write transaction may hold locks or unflushed changes that only its own query can see
+        if (TransactionSynchronizationManager.isActualTransactionActive() && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+            return joinPoint.proceed();
+
+        var method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        var key = List.of(method, changeToken, ReplicaRoutingDataSource.isPinnedToPrimary(), Arrays.asList(joinPoint.getArgs()));
+        // Point lookups only share a query already in flight; scans also reuse a just-finished result for a short window
+        var window = Iterable.class.isAssignableFrom(method.getReturnType()) ? listWindow : Duration.ZERO;
+        return singleFlight.execute(key, window, RepositorySingleFlight::copyOf, joinPoint::proceed);
+    }
+
+    // Entities and the lists holding them are mutable, so every caller sharing a result gets its own copies;
+    // projections, counts and other values are immutable and shared as they are
+    static Object copyOf(Object result) {
+        if (result instanceof Optional<?> optional)
+            return optional.map(RepositorySingleFlight::copyOf);
+        if (result instanceof List<?> list) {
+            var copy = new ArrayList<>(list.size());
+            for (var element : list)
+                copy.add(copyOf(element));
+            return copy;
+        }
+        if (result instanceof Spaceship spaceship) {
+            var copy = new Spaceship();
+            copy.setId(spaceship.getId());
+            copy.setName(spaceship.getName());
+            copy.setFuel(spaceship.getFuel());
+            copy.setVersion(spaceship.getVersion());
+            return copy;
+        }
+        if (result instanceof Crewmember crewmember) {
+            var copy = new Crewmember();
+            copy.setId(crewmember.getId());
+            copy.setName(crewmember.getName());
+            copy.setMorale(crewmember.getMorale());
+            copy.setSpaceshipId(crewmember.getSpaceshipId());
+            copy.setVersion(crewmember.getVersion());
+            return copy;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.drbaltar.continuityweek4.Coalescing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
+
+public class SingleFlight {
+
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    private final Duration joinTimeout;
+    private final Counter executed;
+    private final Counter coalesced;
+    private final Counter timedOut;
+
+    public SingleFlight(String name, Duration joinTimeout, MeterRegistry meterRegistry) {
+        this.joinTimeout = joinTimeout;
+        this.executed = meterRegistry.counter("single_flight.calls", "name", name, "result", "executed");
+        this.coalesced = meterRegistry.counter("single_flight.calls", "name", name, "result", "coalesced");
+        this.timedOut = meterRegistry.counter("single_flight.calls", "name", name, "result", "timed_out");
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws Throwable;
+    }
+
+    // For results that are immutable; every caller gets the very same object
+    public <T> T execute(Object key, Duration window, Loader<T> loader) throws Throwable {
+        return execute(key, window, UnaryOperator.identity(), loader);
+    }
+
+    // The first caller for a key runs the loader; everyone arriving while it runs, or within window after it finishes,
+    // gets a copy of the same result, or the same exception, instead of running their own. A caller that has waited
+    // joinTimeout for a stuck load stops waiting and runs the loader itself.
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object key, Duration window, UnaryOperator<T> copy, Loader<T> loader) throws Throwable {
+        var call = new CompletableFuture<Object>();
+        var existing = calls.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return copy.apply((T) existing.get(joinTimeout.toNanos(), TimeUnit.NANOSECONDS));
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                timedOut.increment();
+                return loader.load();
+            }
+        }
+
+        executed.increment();
+        try {
+            var result = loader.load();
+            call.complete(result);
+            return result;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            // A failure is never replayed to later callers, only to those who were already waiting on it
+            if (window.isZero() || call.isCompletedExceptionally())
+                calls.remove(key, call);
+            else
+                CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS).execute(() -> calls.remove(key, call));
+        }
+    }
+}
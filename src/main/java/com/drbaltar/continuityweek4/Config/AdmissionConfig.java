@@ -0,0 +1,36 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Admission.AdaptiveConcurrencyLimiter;
+import com.drbaltar.continuityweek4.Admission.AdmissionControlFilter;
+import com.drbaltar.continuityweek4.Admission.ClientRateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "continuity.admission.enabled", havingValue = "true")
+public class AdmissionConfig {
+
+    // Runs ahead of the other filters so a rejected write costs as little as possible
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(
+            MeterRegistry meterRegistry,
+            @Value("${continuity.admission.permits-per-second:20}") double permitsPerSecond,
+            @Value("${continuity.admission.burst:40}") int burst,
+            @Value("${continuity.admission.client-key-header:}") String clientKeyHeader,
+            @Value("${continuity.admission.initial-write-concurrency:10}") int initialWriteConcurrency,
+            @Value("${continuity.admission.max-write-concurrency:15}") int maxWriteConcurrency,
+            @Value("${continuity.admission.latency-target:250ms}") Duration latencyTarget) {
+        var filter = new AdmissionControlFilter(new ClientRateLimiter(permitsPerSecond, burst), AdmissionControlFilter.clientKey(clientKeyHeader),
+                new AdaptiveConcurrencyLimiter(initialWriteConcurrency, 1, maxWriteConcurrency, latencyTarget), meterRegistry);
+        var registration = new FilterRegistrationBean<>(filter);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 100);
+        return registration;
+    }
+}
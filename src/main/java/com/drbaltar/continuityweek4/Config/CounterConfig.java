@@ -0,0 +1,85 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Counters.DeltaAccumulator;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.function.IntUnaryOperator;
+
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "continuity.counters.coalesce-deltas", havingValue = "true")
+public class CounterConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(CounterConfig.class);
+
+    private final DeltaAccumulator fuelAccumulator;
+    private final DeltaAccumulator moraleAccumulator;
+
+    public CounterConfig(SpaceshipRepository spaceshipRepository, CrewmemberRepository crewmemberRepository,
+                         TransactionTemplate transactionTemplate, ChangeEventBus eventBus) {
+        fuelAccumulator = new DeltaAccumulator((id, delta) -> applyOrDrop("spaceship", id, delta, transactionTemplate,
+                step -> spaceshipRepository.addFuel(id, step), eventBus));
+        moraleAccumulator = new DeltaAccumulator((id, delta) -> applyOrDrop("crewmember", id, delta, transactionTemplate,
+                step -> crewmemberRepository.addMorale(id, step), eventBus));
+    }
+
+    // Outside a caller's transaction every id commits on its own, and a delta the database refuses outright, such as one
+    // pushing the column out of range, is dropped instead of being re-queued forever. Inside a caller's transaction the
+    // failure is the caller's, so it is rethrown and the delta waits for the next scheduled flush to be judged alone.
+    private static void applyOrDrop(String type, Long id, long delta, TransactionTemplate transactionTemplate,
+                                    IntUnaryOperator add, ChangeEventBus eventBus) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (addInIntSteps(delta, add))
+                    eventBus.publish(type, ChangeEventBus.UPDATED, id, null);
+            });
+        } catch (NonTransientDataAccessException e) {
+            if (TransactionSynchronizationManager.isActualTransactionActive())
+                throw e;
+            log.error("Dropping {} delta {} for id {} that the database rejects", type, delta, id, e);
+        }
+    }
+
+    // A coalesced delta can outgrow an int; it is applied in int-sized steps so it never fails the flush on its own
+    private static boolean addInIntSteps(long delta, IntUnaryOperator add) {
+        boolean updated = false;
+        while (delta != 0) {
+            int step = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, delta));
+            updated = add.applyAsInt(step) > 0;
+            if (!updated)
+                break;
+            delta -= step;
+        }
+        return updated;
+    }
+
+    @Bean
+    public DeltaAccumulator fuelAccumulator() {
+        return fuelAccumulator;
+    }
+
+    @Bean
+    public DeltaAccumulator moraleAccumulator() {
+        return moraleAccumulator;
+    }
+
+    @Scheduled(fixedDelayString = "${continuity.counters.flush-interval:100}")
+    @PreDestroy
+    public void flushAccumulators() {
+        fuelAccumulator.flush();
+        moraleAccumulator.flush();
+    }
+}
@@ -0,0 +1,26 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Events.ChangeEvent;
+import com.drbaltar.continuityweek4.Models.BulkOperationResult;
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.CrewmemberView;
+import com.drbaltar.continuityweek4.Models.FieldStatisticsSnapshot;
+import com.drbaltar.continuityweek4.Models.ImportResult;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Models.SpaceshipManifest;
+import com.drbaltar.continuityweek4.Models.SpaceshipView;
+import com.drbaltar.continuityweek4.Models.TableChange;
+import com.drbaltar.continuityweek4.Models.ValueFrequency;
+import com.drbaltar.continuityweek4.Transfer.TransferRow;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.nativex.hint.AccessBits;
+import org.springframework.nativex.hint.TypeHint;
+
+// Jackson binds these through reflection, which a native image only allows for types registered at build time
+@Configuration
+@TypeHint(types = {Spaceship.class, Crewmember.class, SpaceshipManifest.class, BulkOperationResult.class, ChangeEvent.class,
+        ImportResult.class, TransferRow.class, TableChange.class, SpaceshipView.class, CrewmemberView.class,
+        FieldStatisticsSnapshot.class, FieldStatisticsSnapshot.Bucket.class, ValueFrequency.class},
+        access = AccessBits.FULL_REFLECTION)
+public class NativeHintsConfig {
+}
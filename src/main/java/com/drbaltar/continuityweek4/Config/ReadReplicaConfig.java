@@ -0,0 +1,63 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Routing.ReadYourWritesFilter;
+import com.drbaltar.continuityweek4.Routing.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConditionalOnProperty(name = "continuity.read-replicas.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // Replicas share the primary's credentials, driver and spring.datasource.hikari.* settings (pool size, timeouts and
+    // driver properties such as useCursorFetch); only the URL and the pool name differ
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                                             Environment environment,
+                                                             @Value("${continuity.read-replicas.urls}") List<String> replicaUrls,
+                                                             @Value("${continuity.read-replicas.health-check-interval:5s}") Duration healthCheckInterval) {
+        var binder = Binder.get(environment);
+        var replicas = new ArrayList<DataSource>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            var replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            binder.bind("spring.datasource.hikari", Bindable.ofInstance(replica));
+            replica.setJdbcUrl(replicaUrls.get(i));
+            replica.setPoolName("replica-" + (i + 1));
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, healthCheckInterval);
+    }
+
+    // The transaction managers take their connection before they publish the read-only flag, so the choice is deferred to the first statement
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(@Value("${continuity.read-replicas.read-your-writes-window:5s}") Duration window) {
+        return new ReadYourWritesFilter(window);
+    }
+}
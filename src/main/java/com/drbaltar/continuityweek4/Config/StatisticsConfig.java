@@ -0,0 +1,56 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Counters.FieldStatistics;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import com.drbaltar.continuityweek4.Routing.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Duration;
+
+@Configuration
+@EnableScheduling
+public class StatisticsConfig {
+
+    private final SpaceshipRepository spaceshipRepository;
+    private final CrewmemberRepository crewmemberRepository;
+    private final FieldStatistics fuelStatistics;
+    private final FieldStatistics moraleStatistics;
+
+    public StatisticsConfig(SpaceshipRepository spaceshipRepository, CrewmemberRepository crewmemberRepository,
+                            @Value("${continuity.stats.fuel-buckets:10,25,50,75,100}") int[] fuelBuckets,
+                            @Value("${continuity.stats.morale-buckets:10,25,50,75,100}") int[] moraleBuckets,
+                            @Value("${continuity.stats.reconcile-interval:10000}") long reconcileInterval) {
+        this.spaceshipRepository = spaceshipRepository;
+        this.crewmemberRepository = crewmemberRepository;
+        fuelStatistics = new FieldStatistics("fuel", fuelBuckets, Duration.ofMillis(reconcileInterval));
+        moraleStatistics = new FieldStatistics("morale", moraleBuckets, Duration.ofMillis(reconcileInterval));
+    }
+
+    @Bean
+    public FieldStatistics fuelStatistics() {
+        return fuelStatistics;
+    }
+
+    @Bean
+    public FieldStatistics moraleStatistics() {
+        return moraleStatistics;
+    }
+
+    // Repairs drift from writes the controllers could not account for exactly and from other nodes writing the same tables.
+    // Pinned to the primary: a lagging replica would reset the counters to an old state and still mark them exact
+    @Scheduled(fixedDelayString = "${continuity.stats.reconcile-interval:10000}")
+    public void reconcileStatistics() {
+        ReplicaRoutingDataSource.setPinnedToPrimary(true);
+        try {
+            fuelStatistics.reconcile(spaceshipRepository::findFuelFrequencies);
+            moraleStatistics.reconcile(crewmemberRepository::findMoraleFrequencies);
+        } finally {
+            ReplicaRoutingDataSource.setPinnedToPrimary(false);
+        }
+    }
+}
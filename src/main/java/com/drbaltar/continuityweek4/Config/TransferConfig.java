@@ -0,0 +1,28 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Counters.FieldStatistics;
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Transfer.FleetTransfer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+@Configuration
+public class TransferConfig {
+
+    @Bean
+    public FleetTransfer fleetTransfer(DataSource dataSource, EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager,
+                                       ObjectMapper objectMapper, CacheManager cacheManager, TableChangeTokens changeTokens, ChangeEventBus eventBus,
+                                       @Qualifier("fuelStatistics") FieldStatistics fuelStatistics,
+                                       @Qualifier("moraleStatistics") FieldStatistics moraleStatistics) {
+        return new FleetTransfer(dataSource, entityManagerFactory, transactionManager, objectMapper, cacheManager, changeTokens, eventBus,
+                fuelStatistics, moraleStatistics);
+    }
+}
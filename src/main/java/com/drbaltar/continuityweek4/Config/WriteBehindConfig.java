@@ -0,0 +1,30 @@
+package com.drbaltar.continuityweek4.Config;
+
+import com.drbaltar.continuityweek4.Buffers.SpaceshipWriteBehindBuffer;
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "continuity.write-behind.enabled", havingValue = "true")
+public class WriteBehindConfig {
+
+    @Bean(destroyMethod = "close")
+    public SpaceshipWriteBehindBuffer spaceshipWriteBehindBuffer(JdbcTemplate jdbcTemplate, CacheManager cacheManager,
+                                                                 TableChangeTokens changeTokens, ChangeEventBus eventBus,
+                                                                 MeterRegistry meterRegistry,
+                                                                 @Value("${continuity.write-behind.capacity:100000}") int capacity,
+                                                                 @Value("${continuity.write-behind.batch-size:500}") int batchSize,
+                                                                 @Value("${continuity.write-behind.flush-interval:1s}") Duration flushInterval) {
+        return new SpaceshipWriteBehindBuffer(jdbcTemplate, cacheManager.getCache("spaceships"), changeTokens, eventBus, meterRegistry,
+                capacity, batchSize, flushInterval);
+    }
+}
@@ -2,12 +2,17 @@ package com.drbaltar.continuityweek4;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.cache.annotation.EnableCaching;
 
 @SpringBootApplication
+@EnableCaching
 public class ContinuityWeek4Application {
 
     public static void main(String[] args) {
-        SpringApplication.run(ContinuityWeek4Application.class, args);
+        var application = new SpringApplication(ContinuityWeek4Application.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(4096));
+        application.run(args);
     }
 
 }
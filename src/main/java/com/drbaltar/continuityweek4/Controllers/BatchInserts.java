@@ -0,0 +1,43 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+final class BatchInserts {
+
+    // Matches spring.jpa.properties.hibernate.jdbc.batch_size so each chunk is flushed as one JDBC batch
+    static final int BATCH_SIZE = 50;
+
+    private BatchInserts() {
+    }
+
+    // Callers run this in one transaction: chunks only bound the JDBC batch size, so a bad line rolls back every chunk
+    // before it and a retry of the same body can never duplicate rows
+    static <T> List<T> saveNdjson(InputStream body, Class<T> type, ObjectMapper objectMapper,
+                                  Function<List<T>, Iterable<T>> saveAll) throws IOException {
+        var saved = new ArrayList<T>();
+        var chunk = new ArrayList<T>(BATCH_SIZE);
+        try (var entities = objectMapper.readerFor(type).<T>readValues(body)) {
+            while (entities.hasNextValue()) {
+                chunk.add(entities.nextValue());
+                if (chunk.size() == BATCH_SIZE) {
+                    saveAll.apply(chunk).forEach(saved::add);
+                    chunk.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed NDJSON line", e);
+        }
+        if (!chunk.isEmpty())
+            saveAll.apply(chunk).forEach(saved::add);
+        return saved;
+    }
+}
@@ -0,0 +1,22 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+final class BulkDeletes {
+
+    // Keeps each IN list to a size MySQL still plans as an index range scan and well under max_allowed_packet
+    static final int CHUNK_SIZE = 1000;
+
+    private BulkDeletes() {
+    }
+
+    // Each chunk returns the ids it actually removed, so callers can publish exactly those
+    static List<Long> deleteInChunks(List<Long> ids, Function<List<Long>, List<Long>> deleteAll) {
+        var deleted = new ArrayList<Long>();
+        for (var from = 0; from < ids.size(); from += CHUNK_SIZE)
+            deleted.addAll(deleteAll.apply(ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()))));
+        return deleted;
+    }
+}
@@ -1,64 +1,298 @@
 package com.drbaltar.continuityweek4.Controllers;
 
+import com.drbaltar.continuityweek4.Counters.DeltaAccumulator;
+import com.drbaltar.continuityweek4.Counters.FieldStatistics;
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Models.BulkOperationResult;
 import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.CrewmemberView;
+import com.drbaltar.continuityweek4.Models.FieldStatisticsSnapshot;
 import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/crewmember")
 public class CrewmemberController {
 
+    private static final String EVENT_TYPE = "crewmember";
+    private static final Set<String> UPDATABLE_FIELDS = Set.of("name", "morale", "spaceshipId");
+
     CrewmemberRepository repository;
+    ObjectMapper objectMapper;
+    TableChangeTokens changeTokens;
+    ChangeEventBus eventBus;
+    DeltaAccumulator moraleAccumulator;
+    FieldStatistics moraleStatistics;
 
-    public CrewmemberController(CrewmemberRepository repository) {
+    public CrewmemberController(CrewmemberRepository repository, ObjectMapper objectMapper, TableChangeTokens changeTokens, ChangeEventBus eventBus,
+                                @Qualifier("moraleAccumulator") Optional<DeltaAccumulator> moraleAccumulator,
+                                @Qualifier("moraleStatistics") FieldStatistics moraleStatistics) {
         this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.changeTokens = changeTokens;
+        this.eventBus = eventBus;
+        this.moraleAccumulator = moraleAccumulator.orElse(null);
+        this.moraleStatistics = moraleStatistics;
     }
 
     @PostMapping
     public Crewmember saveCrewmemberEntryInDB(@RequestBody Crewmember newCrewmember) {
-        return repository.save(newCrewmember);
+        return created(repository.save(newCrewmember));
+    }
+
+    @PostMapping("/batch")
+    public List<Crewmember> saveCrewmembersInBatch(@RequestBody List<Crewmember> newCrewmembers) {
+        return createdAll(repository.saveAll(newCrewmembers));
+    }
+
+    @PostMapping(value = "/batch", consumes = KeysetPages.NDJSON)
+    @Transactional(rollbackFor = IOException.class)
+    public List<Crewmember> saveCrewmembersFromNdjson(InputStream body) throws IOException {
+        return BatchInserts.saveNdjson(body, Crewmember.class, objectMapper,
+                newCrewmembers -> createdAll(repository.saveAll(newCrewmembers)));
+    }
+
+    @GetMapping("/stats")
+    public FieldStatisticsSnapshot getCrewmemberStatistics() {
+        return moraleStatistics.snapshot();
     }
 
     @GetMapping("/{id}")
-    public Optional<Crewmember> getCrewmemberByID(@PathVariable Long id) {
-        return repository.findById(id);
+    public ResponseEntity<Crewmember> getCrewmemberByID(@PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        var crewmember = repository.findById(id);
+        if (crewmember.isEmpty())
+            return ResponseEntity.notFound().build();
+        var tag = EntityTags.of(crewmember.get().getVersion());
+        if (ifNoneMatch != null && EntityTags.matchesIfNoneMatch(ifNoneMatch, tag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).varyBy(HttpHeaders.ACCEPT).build();
+        // The body is negotiated between JSON, CBOR and Smile, so shared caches must key it on Accept
+        return ResponseEntity.ok().eTag(tag).varyBy(HttpHeaders.ACCEPT).body(crewmember.get());
     }
 
+    // One read-only transaction covers the tag and every page, so they come from the same database and the same snapshot
     @GetMapping
-    public Iterable<Crewmember> getAllCrewmembers() {
-        return repository.findAll();
+    @Transactional(readOnly = true)
+    public void getAllCrewmembers(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletResponse response) throws IOException {
+        var format = JsonArrays.negotiate(accept);
+        var tag = JsonArrays.tagOf(changeTokens.crewmemberTableVersion(), format);
+        response.setHeader(HttpHeaders.ETAG, tag);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (ifNoneMatch != null && EntityTags.matchesIfNoneMatch(ifNoneMatch, tag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        JsonArrays.write(response, format, objectMapper.getFactory(), repository::findViewsByIdGreaterThan, CrewmemberView::id, CrewmemberView::writeJson);
+    }
+
+    @GetMapping(params = "limit")
+    public List<CrewmemberView> getCrewmemberPage(@RequestParam int limit, @RequestParam(defaultValue = "0") Long after) {
+        return repository.findViewsByIdGreaterThan(after, KeysetPages.firstPage(limit));
+    }
+
+    @GetMapping(value = "/stream", produces = KeysetPages.NDJSON)
+    public StreamingResponseBody streamAllCrewmembers() {
+        return KeysetPages.stream(repository::findViewsByIdGreaterThan, CrewmemberView::id, objectMapper);
+    }
+
+    @GetMapping("/search")
+    public List<Crewmember> searchCrewmembers(@RequestParam(required = false) Integer moraleBelow,
+                                              @RequestParam(defaultValue = KeysetPages.DEFAULT_LIMIT) int limit,
+                                              @RequestParam(defaultValue = "0") Long after) {
+        var page = KeysetPages.firstPage(limit);
+        if (moraleBelow != null)
+            return repository.findByMoraleLessThanAndIdGreaterThanOrderByIdAsc(moraleBelow, after, page);
+        else
+            return repository.findByIdGreaterThanOrderByIdAsc(after, page);
     }
 
     @PutMapping("/{id}")
-    public Crewmember updateCrewmemberByID(@PathVariable Long id, @RequestBody Crewmember updatedCrewmember) {
+    @Transactional
+    public ResponseEntity<Crewmember> updateCrewmemberByID(@PathVariable Long id, @RequestBody Crewmember updatedCrewmember,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        flushPendingDeltas(List.of(id));
+        var currentCrewmember = repository.findWithLockById(id);
+        if (currentCrewmember.isEmpty())
+            return ResponseEntity.notFound().build();
+        if (ifMatch != null && !versionMatches(currentCrewmember.get(), ifMatch))
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+
+        // Read before saving: the save merges into this managed instance
+        var previousMorale = currentCrewmember.get().getMorale();
         updatedCrewmember.setId(id);
-        return repository.save(updatedCrewmember);
+        updatedCrewmember.setVersion(currentCrewmember.get().getVersion());
+        var savedCrewmember = published(ChangeEventBus.UPDATED, repository.saveAndFlush(updatedCrewmember));
+        moraleStatistics.recordChanged(previousMorale, savedCrewmember.getMorale());
+        return ResponseEntity.ok().eTag(EntityTags.of(savedCrewmember.getVersion())).body(savedCrewmember);
     }
 
     @PatchMapping("/{id}")
-    public Optional<Crewmember> updateCrewmemberFieldsByID(@PathVariable Long id, @RequestBody HashMap<String, String> updatedFields) {
-        var queryResults = repository.findById(id);
-        return queryResults.map(crewmember -> {
-            return updateFields(crewmember, updatedFields);
-        });
+    @Transactional
+    public ResponseEntity<Crewmember> updateCrewmemberFieldsByID(@PathVariable Long id, @RequestBody HashMap<String, String> updatedFields,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        flushPendingDeltas(List.of(id));
+        // The row is locked before the update whenever the old version or the old morale is needed
+        var changesMorale = updatedFields.get("morale") != null;
+        var current = ifMatch != null || changesMorale ? repository.findWithLockById(id) : Optional.<Crewmember>empty();
+        if (ifMatch != null && !current.map(crewmember -> versionMatches(crewmember, ifMatch)).orElse(false))
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        var previousMorale = current.map(Crewmember::getMorale);
+        if (!updateFields(id, updatedFields))
+            return ResponseEntity.notFound().build();
+
+        // Cache puts wait for commit but cache reads do not, so the row written above is read back from the database
+        return repository.findWithLockById(id)
+                .map(patchedCrewmember -> {
+                    if (changesMorale)
+                        previousMorale.ifPresent(morale -> moraleStatistics.recordChanged(morale, patchedCrewmember.getMorale()));
+                    return published(ChangeEventBus.UPDATED, patchedCrewmember);
+                })
+                .map(patchedCrewmember -> ResponseEntity.ok().eTag(EntityTags.of(patchedCrewmember.getVersion())).body(patchedCrewmember))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
-    private Crewmember updateFields(Crewmember crewmember, HashMap<String, String> updatedFields) {
-        updatedFields.forEach((key, value) -> {
-            if (key.equals("name"))
-                crewmember.setName(value);
-            else if (key.equals("morale"))
-                crewmember.setMorale(Integer.parseInt(value));
-        });
+    private static boolean versionMatches(Crewmember crewmember, String ifMatch) {
+        return EntityTags.matchesIfMatch(ifMatch, EntityTags.of(crewmember.getVersion()));
+    }
+
+    private boolean updateFields(Long id, HashMap<String, String> updatedFields) {
+        if (updatedFields.keySet().stream().noneMatch(UPDATABLE_FIELDS::contains))
+            return repository.existsById(id);
+        var unassign = updatedFields.containsKey("spaceshipId") && updatedFields.get("spaceshipId") == null;
+        return repository.updateFields(id, updatedFields.get("name"), parseNullable(updatedFields.get("morale"), Integer::valueOf),
+                parseNullable(updatedFields.get("spaceshipId"), Long::valueOf), unassign) > 0;
+    }
+
+    @PatchMapping
+    @Transactional
+    public ResponseEntity<BulkOperationResult> updateMatchingCrewmembers(@RequestParam(required = false) Integer moraleBelow,
+                                                                         @RequestParam(required = false) Long spaceshipId,
+                                                                         @RequestBody HashMap<String, String> updatedFields) {
+        // Without a filter the statement would rewrite the whole table, and without a known field it would only bump versions
+        if ((moraleBelow == null && spaceshipId == null) || updatedFields.keySet().stream().noneMatch(UPDATABLE_FIELDS::contains))
+            return ResponseEntity.badRequest().build();
+
+        // The matching rows are only known to the database, so every pending morale delta is applied ahead of the statement
+        if (moraleAccumulator != null)
+            moraleAccumulator.flush();
+        var newName = updatedFields.get("name");
+        var newMorale = parseNullable(updatedFields.get("morale"), Integer::valueOf);
+        var newSpaceshipId = parseNullable(updatedFields.get("spaceshipId"), Long::valueOf);
+        List<Integer> previousMorales = List.of();
+        int updated;
+        if (moraleBelow != null && spaceshipId != null) {
+            if (newMorale != null)
+                previousMorales = repository.findMoralesWithLockByMoraleBelowAndSpaceshipId(moraleBelow, spaceshipId);
+            updated = repository.updateAllWithMoraleBelowInSpaceship(moraleBelow, spaceshipId, newName, newMorale, newSpaceshipId);
+        } else if (moraleBelow != null) {
+            if (newMorale != null)
+                previousMorales = repository.findMoralesWithLockByMoraleBelow(moraleBelow);
+            updated = repository.updateAllWithMoraleBelow(moraleBelow, newName, newMorale, newSpaceshipId);
+        } else {
+            if (newMorale != null)
+                previousMorales = repository.findMoralesWithLockBySpaceshipId(spaceshipId);
+            updated = repository.updateAllInSpaceship(spaceshipId, newName, newMorale, newSpaceshipId);
+        }
+        if (updated > 0)
+            eventBus.publish(EVENT_TYPE, ChangeEventBus.UPDATED, null, updatedFields);
+        if (newMorale != null)
+            moraleStatistics.recordAllChanged(previousMorales, newMorale);
+        return ResponseEntity.ok(new BulkOperationResult(updated));
+    }
+
+    private static <T> T parseNullable(String value, Function<String, T> parser) {
+        return value == null ? null : parser.apply(value);
+    }
+
+    // Patch values arrive as strings, so a bad number is the client's mistake rather than a server error
+    @ExceptionHandler(NumberFormatException.class)
+    public ResponseEntity<Void> rejectMalformedNumber() {
+        return ResponseEntity.badRequest().build();
+    }
+
+    @PostMapping("/{id}/morale:add")
+    @Transactional
+    public ResponseEntity<Crewmember> addMoraleByCrewmemberID(@PathVariable Long id, @RequestParam int delta) {
+        if (moraleAccumulator != null) {
+            moraleAccumulator.add(id, delta);
+            moraleStatistics.recordUnknownChange();
+            return ResponseEntity.accepted().build();
+        }
+        if (repository.addMorale(id, delta) == 0)
+            return ResponseEntity.notFound().build();
+        return ResponseEntity.of(repository.findWithLockById(id).map(crewmember -> {
+            moraleStatistics.recordChanged(crewmember.getMorale() - delta, crewmember.getMorale());
+            return published(ChangeEventBus.UPDATED, crewmember);
+        }));
+    }
+
+    // A morale delta accepted with 202 before an absolute write is applied first, so the write is never undone by it
+    private void flushPendingDeltas(List<Long> ids) {
+        if (moraleAccumulator != null)
+            moraleAccumulator.flush(ids);
+    }
+
+    private Crewmember published(String action, Crewmember crewmember) {
+        eventBus.publish(EVENT_TYPE, action, crewmember.getId(), crewmember);
         return crewmember;
     }
 
+    private Crewmember created(Crewmember crewmember) {
+        moraleStatistics.recordAdded(crewmember.getMorale());
+        return published(ChangeEventBus.CREATED, crewmember);
+    }
+
+    private List<Crewmember> createdAll(List<Crewmember> crewmembers) {
+        crewmembers.forEach(this::created);
+        return crewmembers;
+    }
+
     @DeleteMapping("/{id}")
+    @Transactional
     public String deleteCrewmemberById(@PathVariable Long id) {
+        var morale = repository.findWithLockById(id).map(Crewmember::getMorale);
         repository.deleteById(id);
+        eventBus.publish(EVENT_TYPE, ChangeEventBus.DELETED, id, null);
+        morale.ifPresent(moraleStatistics::recordRemoved);
         return "The crewmember with an id of %d has been deleted from the database".formatted(id);
     }
+
+    @DeleteMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Transactional
+    public BulkOperationResult deleteCrewmembersById(@RequestBody List<Long> ids) {
+        var removedMorales = new ArrayList<Integer>();
+        var deleted = BulkDeletes.deleteInChunks(ids, chunk -> {
+            var existing = repository.findViewsWithLock(chunk);
+            if (existing.isEmpty())
+                return List.of();
+            var existingIds = existing.stream().map(CrewmemberView::id).toList();
+            repository.deleteAllWithIds(existingIds);
+            existing.forEach(crewmember -> removedMorales.add(crewmember.morale()));
+            return existingIds;
+        });
+        deleted.forEach(id -> eventBus.publish(EVENT_TYPE, ChangeEventBus.DELETED, id, null));
+        moraleStatistics.recordAllRemoved(removedMorales);
+        return new BulkOperationResult(deleted.size());
+    }
 }
@@ -0,0 +1,37 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    static String of(long version) {
+        return "\"%d\"".formatted(version);
+    }
+
+    static String of(String token) {
+        return "\"%s\"".formatted(token);
+    }
+
+    // If-None-Match uses the weak comparison, so W/ prefixed tags still match
+    static boolean matchesIfNoneMatch(String ifNoneMatch, String tag) {
+        for (var candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(tag))
+                return true;
+        }
+        return false;
+    }
+
+    // If-Match uses the strong comparison, so weak tags never match
+    static boolean matchesIfMatch(String ifMatch, String tag) {
+        for (var candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(tag))
+                return true;
+        }
+        return false;
+    }
+}
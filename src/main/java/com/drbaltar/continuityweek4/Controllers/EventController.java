@@ -0,0 +1,47 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.drbaltar.continuityweek4.Events.ChangeEvent;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/events")
+public class EventController {
+
+    private static final long EMITTER_TIMEOUT = Duration.ofMinutes(30).toMillis();
+
+    private final ChangeEventBus eventBus;
+
+    public EventController(ChangeEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChangeEvents(@RequestParam(required = false) String type,
+                                         @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        var emitter = new SseEmitter(EMITTER_TIMEOUT);
+        var subscription = eventBus.subscribe(type, lastEventId, new ChangeEventBus.EventSink() {
+            @Override
+            public void send(ChangeEvent event) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(event.id()))
+                        .name(event.action())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(error -> subscription.cancel());
+        return emitter;
+    }
+}
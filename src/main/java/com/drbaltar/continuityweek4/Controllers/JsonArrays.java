@@ -0,0 +1,82 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+final class JsonArrays {
+
+    static final MediaType CBOR = MediaType.valueOf("application/cbor");
+    static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    // CBOR and Smile generators share JsonGenerator's API, so the same row writers produce all three formats
+    private static final Map<MediaType, JsonFactory> BINARY_FACTORIES = Map.of(
+            CBOR, new CBORFactory(),
+            SMILE, new SmileFactory());
+
+    private JsonArrays() {
+    }
+
+    @FunctionalInterface
+    interface RowWriter<T> {
+        void write(T row, JsonGenerator generator) throws IOException;
+    }
+
+    // Writes keyset pages straight into the servlet output stream; the factory recycles the generator's buffers per thread,
+    // so a response never builds a String or byte[] of its own. The array is only closed once every page is written: on a
+    // failure the generator is left open and the exception propagates, so the client sees a broken response rather than
+    // a well-formed but shorter list
+    static <T> void write(HttpServletResponse response, MediaType format, JsonFactory jsonFactory,
+                          BiFunction<Long, Pageable, List<T>> pageLoader,
+                          Function<T, Long> idOf,
+                          RowWriter<T> rowWriter) throws IOException {
+        response.setContentType(format.toString());
+        var factory = BINARY_FACTORIES.getOrDefault(format, jsonFactory);
+        var generator = factory.createGenerator(response.getOutputStream());
+        generator.writeStartArray();
+        Long after = 0L;
+        List<T> page;
+        do {
+            page = pageLoader.apply(after, PageRequest.of(0, KeysetPages.MAX_PAGE_SIZE));
+            for (T row : page)
+                rowWriter.write(row, generator);
+            if (!page.isEmpty())
+                after = idOf.apply(page.get(page.size() - 1));
+        } while (page.size() == KeysetPages.MAX_PAGE_SIZE);
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    // Each format is a different byte sequence, so each gets its own strong tag for the same table version
+    static String tagOf(long tableVersion, MediaType format) {
+        return EntityTags.of("%d-%s".formatted(tableVersion, format.getSubtype()));
+    }
+
+    static MediaType negotiate(String accept) {
+        if (accept == null)
+            return MediaType.APPLICATION_JSON;
+        var acceptable = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptable);
+        for (var mediaType : acceptable) {
+            if (mediaType.getQualityValue() == 0)
+                continue;
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON))
+                return MediaType.APPLICATION_JSON;
+            for (var binaryFormat : BINARY_FACTORIES.keySet())
+                if (mediaType.includes(binaryFormat))
+                    return binaryFormat;
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+}
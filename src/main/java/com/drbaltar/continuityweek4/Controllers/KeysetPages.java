@@ -0,0 +1,47 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+final class KeysetPages {
+
+    static final int MAX_PAGE_SIZE = 1000;
+    static final String DEFAULT_LIMIT = "100";
+    static final String NDJSON = "application/x-ndjson";
+
+    private KeysetPages() {
+    }
+
+    static Pageable firstPage(int limit) {
+        return PageRequest.of(0, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    // Walks the table one keyset page at a time so only a single page is ever held in memory
+    static <T> StreamingResponseBody stream(BiFunction<Long, Pageable, List<T>> pageLoader,
+                                            Function<T, Long> idOf,
+                                            ObjectMapper objectMapper) {
+        return outputStream -> {
+            try (var generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                Long after = 0L;
+                List<T> page;
+                do {
+                    page = pageLoader.apply(after, PageRequest.of(0, MAX_PAGE_SIZE));
+                    for (T entity : page) {
+                        generator.writeObject(entity);
+                        generator.writeRaw('\n');
+                    }
+                    generator.flush();
+                    if (!page.isEmpty())
+                        after = idOf.apply(page.get(page.size() - 1));
+                } while (page.size() == MAX_PAGE_SIZE);
+            }
+        };
+    }
+}
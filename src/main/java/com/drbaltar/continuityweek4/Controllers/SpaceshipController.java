@@ -1,69 +1,365 @@
 package com.drbaltar.continuityweek4.Controllers;
 
+import com.drbaltar.continuityweek4.Buffers.SpaceshipWriteBehindBuffer;
+import com.drbaltar.continuityweek4.Counters.DeltaAccumulator;
+import com.drbaltar.continuityweek4.Counters.FieldStatistics;
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Models.BulkOperationResult;
 import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.FieldStatisticsSnapshot;
 import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Models.SpaceshipManifest;
+import com.drbaltar.continuityweek4.Models.SpaceshipView;
 import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
 import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/spaceship")
 public class SpaceshipController {
 
+    private static final String EVENT_TYPE = "spaceship";
+    private static final Set<String> UPDATABLE_FIELDS = Set.of("name", "fuel");
+
     private final SpaceshipRepository repository;
+    private final CrewmemberRepository crewmemberRepository;
+    private final ObjectMapper objectMapper;
+    private final TableChangeTokens changeTokens;
+    private final ChangeEventBus eventBus;
+    private final TransactionTemplate transactionTemplate;
+    private final DeltaAccumulator fuelAccumulator;
+    private final SpaceshipWriteBehindBuffer writeBehindBuffer;
+    private final FieldStatistics fuelStatistics;
 
-    public SpaceshipController(SpaceshipRepository repository) {
+    public SpaceshipController(SpaceshipRepository repository, CrewmemberRepository crewmemberRepository, ObjectMapper objectMapper,
+                               TableChangeTokens changeTokens, ChangeEventBus eventBus, TransactionTemplate transactionTemplate,
+                               @Qualifier("fuelAccumulator") Optional<DeltaAccumulator> fuelAccumulator,
+                               Optional<SpaceshipWriteBehindBuffer> writeBehindBuffer,
+                               @Qualifier("fuelStatistics") FieldStatistics fuelStatistics) {
         this.repository = repository;
+        this.crewmemberRepository = crewmemberRepository;
+        this.objectMapper = objectMapper;
+        this.changeTokens = changeTokens;
+        this.eventBus = eventBus;
+        this.transactionTemplate = transactionTemplate;
+        this.fuelAccumulator = fuelAccumulator.orElse(null);
+        this.writeBehindBuffer = writeBehindBuffer.orElse(null);
+        this.fuelStatistics = fuelStatistics;
     }
 
     @PostMapping
     public Spaceship saveSpaceshipToDB(@RequestBody Spaceship newSpaceship) {
-        return repository.save(newSpaceship);
+        return created(repository.save(newSpaceship));
+    }
+
+    @PostMapping("/batch")
+    public List<Spaceship> saveSpaceshipsInBatch(@RequestBody List<Spaceship> newSpaceships) {
+        return createdAll(repository.saveAll(newSpaceships));
+    }
+
+    @PostMapping(value = "/batch", consumes = KeysetPages.NDJSON)
+    @Transactional(rollbackFor = IOException.class)
+    public List<Spaceship> saveSpaceshipsFromNdjson(InputStream body) throws IOException {
+        return BatchInserts.saveNdjson(body, Spaceship.class, objectMapper,
+                newSpaceships -> createdAll(repository.saveAll(newSpaceships)));
+    }
+
+    @GetMapping("/stats")
+    public FieldStatisticsSnapshot getSpaceshipStatistics() {
+        return fuelStatistics.snapshot();
     }
 
     @GetMapping("/{id}")
-    public Optional<Spaceship> getIndividualSpaceshipById(@PathVariable Long id) {
-        return repository.findById(id);
+    public ResponseEntity<Spaceship> getIndividualSpaceshipById(@PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        var spaceship = repository.findById(id);
+        if (spaceship.isEmpty())
+            return ResponseEntity.notFound().build();
+        var tag = EntityTags.of(spaceship.get().getVersion());
+        if (ifNoneMatch != null && EntityTags.matchesIfNoneMatch(ifNoneMatch, tag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).varyBy(HttpHeaders.ACCEPT).build();
+        // The body is negotiated between JSON, CBOR and Smile, so shared caches must key it on Accept
+        return ResponseEntity.ok().eTag(tag).varyBy(HttpHeaders.ACCEPT).body(spaceship.get());
     }
 
+    // One read-only transaction covers the tag and every page, so they come from the same database and the same snapshot
     @GetMapping
-    public Iterable<Spaceship> getAllSpaceshipsInDB() {
-        return repository.findAll();
+    @Transactional(readOnly = true)
+    public void getAllSpaceshipsInDB(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletResponse response) throws IOException {
+        var format = JsonArrays.negotiate(accept);
+        var tag = JsonArrays.tagOf(changeTokens.spaceshipTableVersion(), format);
+        response.setHeader(HttpHeaders.ETAG, tag);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if (ifNoneMatch != null && EntityTags.matchesIfNoneMatch(ifNoneMatch, tag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        JsonArrays.write(response, format, objectMapper.getFactory(), repository::findViewsByIdGreaterThan, SpaceshipView::id, SpaceshipView::writeJson);
+    }
+
+    @GetMapping(params = {"limit", "!include"})
+    public List<SpaceshipView> getSpaceshipPage(@RequestParam int limit, @RequestParam(defaultValue = "0") Long after) {
+        return repository.findViewsByIdGreaterThan(after, KeysetPages.firstPage(limit));
+    }
+
+    @GetMapping(params = "include=crew")
+    public List<SpaceshipManifest> getSpaceshipManifests(@RequestParam(defaultValue = KeysetPages.DEFAULT_LIMIT) int limit,
+                                                         @RequestParam(defaultValue = "0") Long after) {
+        var spaceships = repository.findByIdGreaterThanOrderByIdAsc(after, KeysetPages.firstPage(limit));
+        if (spaceships.isEmpty())
+            return List.of();
+
+        // Spaceships are ordered by id, so one range query on the indexed foreign key loads the crew of the whole page
+        var firstId = spaceships.get(0).getId();
+        var lastId = spaceships.get(spaceships.size() - 1).getId();
+        var crewBySpaceshipId = crewmemberRepository.findBySpaceshipIdBetweenOrderByIdAsc(firstId, lastId).stream()
+                .collect(Collectors.groupingBy(Crewmember::getSpaceshipId));
+        return spaceships.stream()
+                .map(spaceship -> SpaceshipManifest.of(spaceship, crewBySpaceshipId.getOrDefault(spaceship.getId(), List.of())))
+                .toList();
+    }
+
+    @GetMapping("/search")
+    public List<Spaceship> searchSpaceships(@RequestParam(required = false) String name,
+                                            @RequestParam(required = false) Integer fuelBelow,
+                                            @RequestParam(defaultValue = KeysetPages.DEFAULT_LIMIT) int limit,
+                                            @RequestParam(defaultValue = "0") Long after) {
+        var page = KeysetPages.firstPage(limit);
+        if (name != null && fuelBelow != null)
+            return repository.findByNameStartingWithAndFuelLessThanAndIdGreaterThanOrderByIdAsc(name, fuelBelow, after, page);
+        else if (name != null)
+            return repository.findByNameStartingWithAndIdGreaterThanOrderByIdAsc(name, after, page);
+        else if (fuelBelow != null)
+            return repository.findByFuelLessThanAndIdGreaterThanOrderByIdAsc(fuelBelow, after, page);
+        else
+            return repository.findByIdGreaterThanOrderByIdAsc(after, page);
+    }
+
+    @GetMapping("/{id}/crew")
+    public List<Crewmember> getCrewOfSpaceship(@PathVariable Long id) {
+        return crewmemberRepository.findBySpaceshipIdOrderByIdAsc(id);
+    }
+
+    @GetMapping(value = "/stream", produces = KeysetPages.NDJSON)
+    public StreamingResponseBody streamAllSpaceshipsInDB() {
+        return KeysetPages.stream(repository::findViewsByIdGreaterThan, SpaceshipView::id, objectMapper);
     }
 
     @PutMapping("/{id}")
-    public Spaceship updateSpaceshipByID(@PathVariable Long id, @RequestBody Spaceship updatedSpaceship) {
+    public ResponseEntity<Spaceship> updateSpaceshipByID(@PathVariable Long id, @RequestBody Spaceship updatedSpaceship,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        flushPendingDeltas(List.of(id));
+        if (writeBehindBuffer != null && ifMatch == null) {
+            updatedSpaceship.setId(id);
+            if (!writeBehindBuffer.offer(updatedSpaceship))
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+            fuelStatistics.recordUnknownChange();
+            return ResponseEntity.accepted().build();
+        }
+        flushPendingWrites(List.of(id));
+        return transactionTemplate.execute(status -> replaceSpaceship(id, updatedSpaceship, ifMatch));
+    }
+
+    private ResponseEntity<Spaceship> replaceSpaceship(Long id, Spaceship updatedSpaceship, String ifMatch) {
+        var currentSpaceship = repository.findWithLockById(id);
+        if (currentSpaceship.isEmpty())
+            return ResponseEntity.notFound().build();
+        if (ifMatch != null && !versionMatches(currentSpaceship.get(), ifMatch))
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+
+        // Read before saving: the save merges into this managed instance
+        var previousFuel = currentSpaceship.get().getFuel();
         updatedSpaceship.setId(id);
-        return repository.save(updatedSpaceship);
+        updatedSpaceship.setVersion(currentSpaceship.get().getVersion());
+        var savedSpaceship = published(ChangeEventBus.UPDATED, repository.saveAndFlush(updatedSpaceship));
+        fuelStatistics.recordChanged(previousFuel, savedSpaceship.getFuel());
+        return ResponseEntity.ok().eTag(EntityTags.of(savedSpaceship.getVersion())).body(savedSpaceship);
     }
 
     @PatchMapping("/{id}")
-    public Optional<Spaceship> updateSpaceshipFieldsByID(@PathVariable Long id, @RequestBody HashMap<String, String> updatedFields) {
-        var queryResults = repository.findById(id);
-        return queryResults.map(spaceship -> {
-            return updateFields(spaceship, updatedFields);
-        });
+    @Transactional
+    public ResponseEntity<Spaceship> updateSpaceshipFieldsByID(@PathVariable Long id, @RequestBody HashMap<String, String> updatedFields,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        flushPendingWrites(List.of(id));
+        flushPendingDeltas(List.of(id));
+        // The row is locked before the update whenever the old version or the old fuel is needed
+        var changesFuel = updatedFields.get("fuel") != null;
+        var current = ifMatch != null || changesFuel ? repository.findWithLockById(id) : Optional.<Spaceship>empty();
+        if (ifMatch != null && !current.map(spaceship -> versionMatches(spaceship, ifMatch)).orElse(false))
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        var previousFuel = current.map(Spaceship::getFuel);
+        if (!updateFields(id, updatedFields))
+            return ResponseEntity.notFound().build();
+
+        // Cache puts wait for commit but cache reads do not, so the row written above is read back from the database
+        return repository.findWithLockById(id)
+                .map(patchedSpaceship -> {
+                    if (changesFuel)
+                        previousFuel.ifPresent(fuel -> fuelStatistics.recordChanged(fuel, patchedSpaceship.getFuel()));
+                    return published(ChangeEventBus.UPDATED, patchedSpaceship);
+                })
+                .map(patchedSpaceship -> ResponseEntity.ok().eTag(EntityTags.of(patchedSpaceship.getVersion())).body(patchedSpaceship))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
-    private Spaceship updateFields(Spaceship spaceship, HashMap<String, String> updatedFields) {
-        updatedFields.forEach((key, value) -> {
-            if (key.equals("name"))
-                spaceship.setName(value);
-            else if (key.equals("fuel"))
-                spaceship.setFuel(Integer.parseInt(value));
-        });
+    private static boolean versionMatches(Spaceship spaceship, String ifMatch) {
+        return EntityTags.matchesIfMatch(ifMatch, EntityTags.of(spaceship.getVersion()));
+    }
+
+    private boolean updateFields(Long id, HashMap<String, String> updatedFields) {
+        if (updatedFields.keySet().stream().noneMatch(UPDATABLE_FIELDS::contains))
+            return repository.existsById(id);
+        return repository.updateFields(id, updatedFields.get("name"), parseNullable(updatedFields.get("fuel"), Integer::valueOf)) > 0;
+    }
+
+    @PatchMapping
+    @Transactional
+    public ResponseEntity<BulkOperationResult> updateMatchingSpaceships(@RequestParam(required = false) String name,
+                                                                        @RequestParam(required = false) Integer fuelBelow,
+                                                                        @RequestBody HashMap<String, String> updatedFields) {
+        // Without a filter the statement would rewrite the whole table, and without a known field it would only bump versions
+        if ((name == null && fuelBelow == null) || updatedFields.keySet().stream().noneMatch(UPDATABLE_FIELDS::contains))
+            return ResponseEntity.badRequest().build();
+
+        // The matching rows are only known to the database, so every buffered report is written ahead of the statement
+        if (writeBehindBuffer != null)
+            writeBehindBuffer.flush();
+        if (fuelAccumulator != null)
+            fuelAccumulator.flush();
+        var newName = updatedFields.get("name");
+        var newFuel = parseNullable(updatedFields.get("fuel"), Integer::valueOf);
+        List<Integer> previousFuels = List.of();
+        int updated;
+        if (name != null && fuelBelow != null) {
+            if (newFuel != null)
+                previousFuels = repository.findFuelsWithLockByNamePrefixAndFuelBelow(name, fuelBelow);
+            updated = repository.updateAllWithNamePrefixAndFuelBelow(name, fuelBelow, newName, newFuel);
+        } else if (name != null) {
+            if (newFuel != null)
+                previousFuels = repository.findFuelsWithLockByNamePrefix(name);
+            updated = repository.updateAllWithNamePrefix(name, newName, newFuel);
+        } else {
+            if (newFuel != null)
+                previousFuels = repository.findFuelsWithLockByFuelBelow(fuelBelow);
+            updated = repository.updateAllWithFuelBelow(fuelBelow, newName, newFuel);
+        }
+        if (updated > 0)
+            eventBus.publish(EVENT_TYPE, ChangeEventBus.UPDATED, null, updatedFields);
+        if (newFuel != null)
+            fuelStatistics.recordAllChanged(previousFuels, newFuel);
+        return ResponseEntity.ok(new BulkOperationResult(updated));
+    }
+
+    private static <T> T parseNullable(String value, Function<String, T> parser) {
+        return value == null ? null : parser.apply(value);
+    }
+
+    // Patch values arrive as strings, so a bad number is the client's mistake rather than a server error
+    @ExceptionHandler(NumberFormatException.class)
+    public ResponseEntity<Void> rejectMalformedNumber() {
+        return ResponseEntity.badRequest().build();
+    }
+
+    @PostMapping("/{id}/fuel:add")
+    @Transactional
+    public ResponseEntity<Spaceship> addFuelBySpaceshipID(@PathVariable Long id, @RequestParam int delta) {
+        flushPendingWrites(List.of(id));
+        if (fuelAccumulator != null) {
+            fuelAccumulator.add(id, delta);
+            fuelStatistics.recordUnknownChange();
+            return ResponseEntity.accepted().build();
+        }
+        if (repository.addFuel(id, delta) == 0)
+            return ResponseEntity.notFound().build();
+        return ResponseEntity.of(repository.findWithLockById(id).map(spaceship -> {
+            fuelStatistics.recordChanged(spaceship.getFuel() - delta, spaceship.getFuel());
+            return published(ChangeEventBus.UPDATED, spaceship);
+        }));
+    }
+
+    // A PUT still waiting in the write-behind buffer was accepted before this write, so it is applied first
+    private void flushPendingWrites(List<Long> ids) {
+        if (writeBehindBuffer != null)
+            writeBehindBuffer.flush(ids);
+    }
+
+    // A fuel delta accepted with 202 before an absolute write is applied first, so the write is never undone by it
+    private void flushPendingDeltas(List<Long> ids) {
+        if (fuelAccumulator != null)
+            fuelAccumulator.flush(ids);
+    }
+
+    private Spaceship published(String action, Spaceship spaceship) {
+        eventBus.publish(EVENT_TYPE, action, spaceship.getId(), spaceship);
         return spaceship;
     }
 
+    private Spaceship created(Spaceship spaceship) {
+        fuelStatistics.recordAdded(spaceship.getFuel());
+        return published(ChangeEventBus.CREATED, spaceship);
+    }
+
+    private List<Spaceship> createdAll(List<Spaceship> spaceships) {
+        spaceships.forEach(this::created);
+        return spaceships;
+    }
+
     @DeleteMapping("/{id}")
+    @Transactional
     public String deleteSpaceshipById(@PathVariable Long id) {
+        flushPendingWrites(List.of(id));
+        var fuel = repository.findWithLockById(id).map(Spaceship::getFuel);
+        crewmemberRepository.unassignFromSpaceship(id);
         repository.deleteById(id);
+        eventBus.publish(EVENT_TYPE, ChangeEventBus.DELETED, id, null);
+        fuel.ifPresent(fuelStatistics::recordRemoved);
         return "The spaceship with an id of %d has been deleted from the database".formatted(id);
     }
 
+    // Ids come in the body: a few thousand of them in a query string would pass Tomcat's 8KB request line limit
+    @DeleteMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Transactional
+    public BulkOperationResult deleteSpaceshipsById(@RequestBody List<Long> ids) {
+        flushPendingWrites(ids);
+        var removedFuels = new ArrayList<Integer>();
+        var deleted = BulkDeletes.deleteInChunks(ids, chunk -> {
+            var existing = repository.findViewsWithLock(chunk);
+            if (existing.isEmpty())
+                return List.of();
+            var existingIds = existing.stream().map(SpaceshipView::id).toList();
+            crewmemberRepository.unassignFromSpaceships(existingIds);
+            repository.deleteAllWithIds(existingIds);
+            existing.forEach(spaceship -> removedFuels.add(spaceship.fuel()));
+            return existingIds;
+        });
+        deleted.forEach(id -> eventBus.publish(EVENT_TYPE, ChangeEventBus.DELETED, id, null));
+        fuelStatistics.recordAllRemoved(removedFuels);
+        return new BulkOperationResult(deleted.size());
+    }
+
     @GetMapping("/current")
     public String getCurrentSpaceshipNumber(@CookieValue(value = "current", required = false) String id) {
         if (id == null)
@@ -0,0 +1,48 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.drbaltar.continuityweek4.Models.ImportResult;
+import com.drbaltar.continuityweek4.Transfer.FleetTransfer;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+public class TransferController {
+
+    static final String GZIP = "application/gzip";
+
+    private final FleetTransfer fleetTransfer;
+
+    public TransferController(FleetTransfer fleetTransfer) {
+        this.fleetTransfer = fleetTransfer;
+    }
+
+    @GetMapping("/export")
+    public void exportFleet(@RequestParam(defaultValue = FleetTransfer.SPACESHIP) String from,
+                            @RequestParam(defaultValue = "0") long after,
+                            HttpServletResponse response) throws IOException {
+        if (!FleetTransfer.TABLES.contains(from)) {
+            response.sendError(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+        response.setContentType(GZIP);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("fleet.ndjson.gz").build().toString());
+        fleetTransfer.export(response.getOutputStream(), from, after);
+    }
+
+    @PostMapping(value = "/import", consumes = GZIP)
+    public ResponseEntity<ImportResult> importFleet(@RequestParam(defaultValue = FleetTransfer.SPACESHIP) String from,
+                                                    @RequestParam(defaultValue = "0") long after,
+                                                    InputStream body) {
+        if (!FleetTransfer.TABLES.contains(from))
+            return ResponseEntity.badRequest().build();
+        var result = fleetTransfer.importFrom(body, from, after);
+        return result.complete() ? ResponseEntity.ok(result) : ResponseEntity.unprocessableEntity().body(result);
+    }
+}
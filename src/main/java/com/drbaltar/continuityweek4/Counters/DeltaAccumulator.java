@@ -0,0 +1,123 @@
+package com.drbaltar.continuityweek4.Counters;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+public class DeltaAccumulator {
+
+    private static final int STRIPES = 16;
+    // Written into every stripe of an idle entry while it is being removed; adders that see it move to a fresh entry
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    private final ConcurrentHashMap<Long, AtomicLongArray> pending = new ConcurrentHashMap<>();
+    private final BiConsumer<Long, Long> applier;
+
+    // The applier writes one id's summed delta; it is called once per id so each can commit or fail on its own
+    public DeltaAccumulator(BiConsumer<Long, Long> applier) {
+        this.applier = applier;
+    }
+
+    public void add(Long id, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true) {
+            var stripes = pending.computeIfAbsent(id, key -> new AtomicLongArray(STRIPES));
+            long current = stripes.get(stripe);
+            if (current == RETIRED)
+                Thread.onSpinWait();
+            else if (stripes.compareAndSet(stripe, current, current + delta))
+                return;
+        }
+    }
+
+    // Each stripe is drained with getAndSet, so a delta added while flushing is either taken now or left for the next flush.
+    // An id with nothing to drain has been idle for a whole interval and its entry is retired so the map does not grow forever
+    public synchronized void flush() {
+        var drained = new LinkedHashMap<Long, Long>();
+        var idle = new ArrayList<Long>();
+        pending.forEach((id, stripes) -> {
+            long sum = 0;
+            boolean touched = false;
+            for (int i = 0; i < STRIPES; i++) {
+                long taken = stripes.getAndSet(i, 0);
+                sum += taken;
+                touched |= taken != 0;
+            }
+            if (sum != 0)
+                drained.put(id, sum);
+            else if (!touched)
+                idle.add(id);
+        });
+        idle.forEach(this::retireIfIdle);
+        apply(drained);
+    }
+
+    // Absolute writes to these ids call this first, so a delta accepted earlier can never land on top of them afterwards
+    public synchronized void flush(Collection<Long> ids) {
+        var drained = new LinkedHashMap<Long, Long>();
+        for (var id : ids) {
+            var stripes = pending.get(id);
+            if (stripes == null)
+                continue;
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++)
+                sum += stripes.getAndSet(i, 0);
+            if (sum != 0)
+                drained.put(id, sum);
+        }
+        apply(drained);
+    }
+
+    // The id that failed and those not reached yet go back to wait for the next flush; ids already applied stay applied
+    private void apply(Map<Long, Long> drained) {
+        var entries = new ArrayList<>(drained.entrySet());
+        for (int i = 0; i < entries.size(); i++) {
+            var entry = entries.get(i);
+            try {
+                applier.accept(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                entries.subList(i, entries.size()).forEach(failed -> add(failed.getKey(), failed.getValue()));
+                throw e;
+            }
+            restoreIfCallerRollsBack(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // A flush inside the caller's transaction is undone with it, so the delta goes back to wait for the next flush
+    private void restoreIfCallerRollsBack(Long id, long delta) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED)
+                    add(id, delta);
+            }
+        });
+    }
+
+    int pendingIds() {
+        return pending.size();
+    }
+
+    // Stripes are claimed from zero to RETIRED one by one; a stripe that an adder got to first is non-zero, so the
+    // claim is rolled back and the entry stays. Once every stripe is claimed no adder can land a delta in it
+    private void retireIfIdle(Long id) {
+        var stripes = pending.get(id);
+        for (int i = 0; i < STRIPES; i++) {
+            if (!stripes.compareAndSet(i, 0, RETIRED)) {
+                for (int j = 0; j < i; j++)
+                    stripes.set(j, 0);
+                return;
+            }
+        }
+        pending.remove(id, stripes);
+    }
+}
@@ -0,0 +1,177 @@
+package com.drbaltar.continuityweek4.Counters;
+
+import com.drbaltar.continuityweek4.Models.FieldStatisticsSnapshot;
+import com.drbaltar.continuityweek4.Models.ValueFrequency;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+public class FieldStatistics {
+
+    private final String field;
+    private final int[] bucketBounds;
+    private final Duration maxStaleness;
+    // Value -> number of rows; keeps min and max exact when rows are removed, and stays small because values repeat
+    private final TreeMap<Integer, Long> frequencies = new TreeMap<>();
+    private final long[] bucketCounts;
+    private long count;
+    private long sum;
+    private long generation;
+    // Writes between beforeCommit and being applied here; they may already be visible to the aggregate query
+    private int pendingWrites;
+    private boolean exact;
+    private Instant reconciledAt;
+
+    public FieldStatistics(String field, int[] bucketBounds, Duration maxStaleness) {
+        this.field = field;
+        this.bucketBounds = bucketBounds.clone();
+        Arrays.sort(this.bucketBounds);
+        this.maxStaleness = maxStaleness;
+        this.bucketCounts = new long[this.bucketBounds.length + 1];
+    }
+
+    public void recordAdded(int value) {
+        afterCommit(() -> apply(value, 1));
+    }
+
+    public void recordChanged(int oldValue, int newValue) {
+        afterCommit(() -> {
+            apply(oldValue, -1);
+            apply(newValue, 1);
+        });
+    }
+
+    // Bulk writes read the old values of their rows under lock first, so they can still move every row exactly
+    public void recordAllChanged(List<Integer> oldValues, int newValue) {
+        if (oldValues.isEmpty())
+            return;
+        afterCommit(() -> {
+            synchronized (this) {
+                for (var oldValue : oldValues) {
+                    apply(oldValue, -1);
+                    apply(newValue, 1);
+                }
+            }
+        });
+    }
+
+    public void recordRemoved(int value) {
+        afterCommit(() -> apply(value, -1));
+    }
+
+    public void recordAllRemoved(List<Integer> values) {
+        if (values.isEmpty())
+            return;
+        afterCommit(() -> {
+            synchronized (this) {
+                values.forEach(value -> apply(value, -1));
+            }
+        });
+    }
+
+    // For writes whose before or after value is not known here; the next reconciliation repairs the counters
+    public void recordUnknownChange() {
+        afterCommit(this::markInexact);
+    }
+
+    public void reconcile(Supplier<List<ValueFrequency>> aggregateQuery) {
+        long generationBeforeQuery;
+        boolean quietBeforeQuery;
+        synchronized (this) {
+            generationBeforeQuery = generation;
+            quietBeforeQuery = pendingWrites == 0;
+        }
+        var rows = aggregateQuery.get();
+        synchronized (this) {
+            frequencies.clear();
+            Arrays.fill(bucketCounts, 0);
+            count = 0;
+            sum = 0;
+            for (var row : rows)
+                add(row.value(), row.frequency());
+            // A write that committed around the query may or may not be in its result and may still be applied on top of it,
+            // so only a run that no write overlapped counts as exact
+            exact = quietBeforeQuery && pendingWrites == 0 && generation == generationBeforeQuery;
+            generation++;
+            reconciledAt = Instant.now();
+        }
+    }
+
+    public synchronized FieldStatisticsSnapshot snapshot() {
+        var histogram = new ArrayList<FieldStatisticsSnapshot.Bucket>(bucketCounts.length);
+        for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+            Integer from = bucket == 0 ? null : bucketBounds[bucket - 1];
+            Integer to = bucket == bucketBounds.length ? null : bucketBounds[bucket];
+            histogram.add(new FieldStatisticsSnapshot.Bucket(from, to, bucketCounts[bucket]));
+        }
+        return new FieldStatisticsSnapshot(field, count, sum,
+                count == 0 ? null : (double) sum / count,
+                frequencies.isEmpty() ? null : frequencies.firstKey(),
+                frequencies.isEmpty() ? null : frequencies.lastKey(),
+                histogram, exact, reconciledAt, maxStaleness);
+    }
+
+    private synchronized void apply(int value, long rows) {
+        generation++;
+        add(value, rows);
+        if (frequencies.getOrDefault(value, 0L) < 0)
+            exact = false;
+    }
+
+    private void add(int value, long rows) {
+        if (frequencies.merge(value, rows, Long::sum) == 0)
+            frequencies.remove(value);
+        count += rows;
+        sum += value * rows;
+        bucketCounts[bucketOf(value)] += rows;
+    }
+
+    private synchronized void markInexact() {
+        generation++;
+        exact = false;
+    }
+
+    private synchronized void changePendingWrites(int delta) {
+        pendingWrites += delta;
+    }
+
+    private int bucketOf(int value) {
+        var index = Arrays.binarySearch(bucketBounds, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    // Rolled back writes never reach the counters
+    private void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean pending;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                pending = true;
+                changePendingWrites(1);
+            }
+
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (pending)
+                    changePendingWrites(-1);
+            }
+        });
+    }
+}
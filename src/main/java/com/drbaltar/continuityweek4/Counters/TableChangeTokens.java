@@ -0,0 +1,107 @@
+package com.drbaltar.continuityweek4.Counters;
+
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Aspect
+@Component
+public class TableChangeTokens {
+
+    private static final String SPACESHIP = "spaceship";
+    private static final String CREWMEMBER = "crewmember";
+    private static final String BUMP_SQL = "update table_change set changes = changes + 1 where table_name = ?";
+
+    // Tokens from a previous run of this node must never match, so each run gets its own prefix
+    private final String instancePrefix = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong spaceshipChanges = new AtomicLong();
+    private final AtomicLong crewmemberChanges = new AtomicLong();
+    private final JdbcTemplate jdbcTemplate;
+
+    public TableChangeTokens(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Only sees writes made through this node; cheap enough to key in-process caches on every read
+    public String spaceshipToken() {
+        return "%s-%d".formatted(instancePrefix, spaceshipChanges.get());
+    }
+
+    public String crewmemberToken() {
+        return "%s-%d".formatted(instancePrefix, crewmemberChanges.get());
+    }
+
+    // Shared by every node through the database, so a tag handed out by one node is invalidated by a write on any other.
+    // Callers read it in the same read-only transaction as the rows it tags, so a lagging replica serves an old tag with
+    // its old rows, never a new tag with them
+    public long spaceshipTableVersion() {
+        return tableVersion(SPACESHIP);
+    }
+
+    public long crewmemberTableVersion() {
+        return tableVersion(CREWMEMBER);
+    }
+
+    @AfterReturning("target(com.drbaltar.continuityweek4.Repositories.SpaceshipRepository) && " +
+            "(execution(* save*(..)) || execution(* delete*(..)) || execution(* update*(..)) || execution(* add*(..)))")
+    public void spaceshipsChanged() {
+        changedWithTransaction(SPACESHIP, spaceshipChanges);
+    }
+
+    @AfterReturning("target(com.drbaltar.continuityweek4.Repositories.CrewmemberRepository) && " +
+            "(execution(* save*(..)) || execution(* delete*(..)) || execution(* update*(..)) || execution(* add*(..)) || execution(* unassign*(..)))")
+    public void crewmembersChanged() {
+        changedWithTransaction(CREWMEMBER, crewmemberChanges);
+    }
+
+    private long tableVersion(String table) {
+        var changes = jdbcTemplate.queryForList("select changes from table_change where table_name = ?", Long.class, table);
+        return changes.isEmpty() ? 0 : changes.get(0);
+    }
+
+    // The shared row is bumped as the last statement of the writing transaction, on its connection, so the new version
+    // becomes visible in the same commit as the rows it describes. The row lock is held from that statement to the commit
+    private void changedWithTransaction(String table, AtomicLong changes) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bumpTableVersion(table);
+            changes.incrementAndGet();
+            return;
+        }
+        var bump = new TableVersionBump(this, table, changes);
+        // Many repository writes in one transaction still cost a single bump of the shared row
+        if (TransactionSynchronizationManager.getSynchronizations().contains(bump))
+            return;
+        TransactionSynchronizationManager.registerSynchronization(bump);
+    }
+
+    private void bumpTableVersion(String table) {
+        if (jdbcTemplate.update(BUMP_SQL, table) > 0)
+            return;
+        try {
+            jdbcTemplate.update("insert into table_change (table_name, changes) values (?, 1)", table);
+        } catch (DuplicateKeyException e) {
+            jdbcTemplate.update(BUMP_SQL, table);
+        }
+    }
+
+    private record TableVersionBump(TableChangeTokens tokens, String table, AtomicLong changes) implements TransactionSynchronization {
+
+        // A failed bump fails the commit, so a write is never visible without its version change
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            tokens.bumpTableVersion(table);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            changes.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.drbaltar.continuityweek4.Events;
+
+public record ChangeEvent(long id, String type, String action, Long entityId, Object data) {
+}
@@ -0,0 +1,210 @@
+package com.drbaltar.continuityweek4.Events;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+@Component
+public class ChangeEventBus {
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+    // Sent instead of a replay when Last-Event-ID is older than the ring still holds, so clients know to reload
+    public static final String RESET = "reset";
+
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final AtomicLong head = new AtomicLong();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemon("change-events-watchdog"));
+    private final int maxSubscriberLag;
+    private final long writeTimeoutNanos;
+
+    public ChangeEventBus(@Value("${continuity.events.capacity:8192}") int capacity,
+                          @Value("${continuity.events.max-subscriber-lag:1024}") int maxSubscriberLag,
+                          @Value("${continuity.events.dispatcher-threads:8}") int dispatcherThreads,
+                          @Value("${continuity.events.write-timeout:5s}") Duration writeTimeout) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.maxSubscriberLag = Math.min(maxSubscriberLag, capacity);
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        // Each subscriber has at most one drain queued, so the queue is bounded by the number of subscribers
+        this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, daemon("change-events"));
+        var checkInterval = Math.max(writeTimeout.toMillis() / 4, 10);
+        watchdog.scheduleWithFixedDelay(this::dropStalledSubscribers, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Events from a transaction are only published once it commits, so subscribers never see rolled back changes
+    public void publish(String type, String action, Long entityId, Object data) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(type, action, entityId, data);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                append(type, action, entityId, data);
+            }
+        });
+    }
+
+    public Subscription subscribe(String type, Long lastEventId, EventSink sink) {
+        long published = head.get();
+        boolean canResume = lastEventId != null && lastEventId <= published && published - lastEventId <= maxSubscriberLag;
+        var subscriber = new Subscriber(type, sink, canResume ? lastEventId : published, lastEventId != null && !canResume);
+        subscribers.add(subscriber);
+        subscriber.signal();
+        return subscriber::cancel;
+    }
+
+    private void append(String type, String action, Long entityId, Object data) {
+        long sequence = head.incrementAndGet();
+        ring.set(slot(sequence), new ChangeEvent(sequence, type, action, entityId, data));
+        subscribers.forEach(Subscriber::signal);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length());
+    }
+
+    // A send blocked on a client that stopped reading would otherwise hold a dispatcher thread until the socket gives up
+    private void dropStalledSubscribers() {
+        long now = System.nanoTime();
+        subscribers.forEach(subscriber -> subscriber.dropIfStalled(now));
+    }
+
+    public interface EventSink {
+
+        void send(ChangeEvent event) throws IOException;
+
+        void close();
+    }
+
+    public interface Subscription {
+
+        void cancel();
+    }
+
+    private final class Subscriber {
+
+        private final String type;
+        private final EventSink sink;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long cursor;
+        private volatile boolean resetPending;
+        private volatile Thread sendingThread;
+        private volatile long sendStartedAt;
+
+        private Subscriber(String type, EventSink sink, long cursor, boolean resetPending) {
+            this.type = type;
+            this.sink = sink;
+            this.cursor = cursor;
+            this.resetPending = resetPending;
+        }
+
+        // Producers only flip a flag here; delivery happens on a dispatcher thread so a slow client never blocks a writer
+        private void signal() {
+            if (!cancelled.get() && scheduled.compareAndSet(false, true))
+                dispatcher.execute(this::drain);
+        }
+
+        private void drain() {
+            try {
+                deliverPublishedEvents();
+            } catch (IOException | RuntimeException e) {
+                cancel();
+            } finally {
+                // An interrupt meant for a stalled send must not leak into the next subscriber's drain
+                Thread.interrupted();
+                if (cancelled.get())
+                    close();
+                scheduled.set(false);
+            }
+            if (!cancelled.get() && ring.get(slot(cursor + 1)) instanceof ChangeEvent next && next.id() == cursor + 1)
+                signal();
+        }
+
+        private void deliverPublishedEvents() throws IOException {
+            if (resetPending) {
+                send(new ChangeEvent(cursor, type, RESET, null, null));
+                resetPending = false;
+            }
+            while (!cancelled.get() && cursor < head.get()) {
+                if (head.get() - cursor > maxSubscriberLag) {
+                    cancel();
+                    return;
+                }
+                var event = ring.get(slot(cursor + 1));
+                if (event == null || event.id() < cursor + 1)
+                    return;
+                if (event.id() > cursor + 1) {
+                    cancel();
+                    return;
+                }
+                if (type == null || type.equals(event.type()))
+                    send(event);
+                cursor = event.id();
+            }
+        }
+
+        private void send(ChangeEvent event) throws IOException {
+            sendStartedAt = System.nanoTime();
+            sendingThread = Thread.currentThread();
+            try {
+                sink.send(event);
+            } finally {
+                sendingThread = null;
+            }
+        }
+
+        // The lag check in the delivery loop only runs between sends, so a send stuck on the socket is caught here instead.
+        // The sink is closed by the delivering thread once the interrupted send returns, never while it still holds the sink
+        private void dropIfStalled(long now) {
+            var thread = sendingThread;
+            if (thread == null || (now - sendStartedAt <= writeTimeoutNanos && head.get() - cursor <= maxSubscriberLag))
+                return;
+            if (cancelled.compareAndSet(false, true)) {
+                subscribers.remove(this);
+                if (sendingThread == thread)
+                    thread.interrupt();
+            }
+        }
+
+        private void cancel() {
+            if (!cancelled.compareAndSet(false, true))
+                return;
+            subscribers.remove(this);
+            if (sendingThread == null)
+                close();
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true))
+                sink.close();
+        }
+    }
+}
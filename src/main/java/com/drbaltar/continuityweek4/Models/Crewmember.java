@@ -1,16 +1,40 @@
 package com.drbaltar.continuityweek4.Models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_crewmember_spaceship_id", columnList = "spaceship_id"),
+        @Index(name = "idx_crewmember_morale", columnList = "morale")
+})
 public class Crewmember {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "crewmember_id")
+    @SequenceGenerator(name = "crewmember_id", sequenceName = "hibernate_sequence", allocationSize = 50)
     private Long id;
     private String name;
     private int morale;
+    @Column(name = "spaceship_id")
+    private Long spaceshipId;
+    @Version
+    private long version;
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "spaceship_id", insertable = false, updatable = false)
+    private Spaceship spaceship;
 
     public String getName() {
         return name;
@@ -28,6 +52,14 @@ public class Crewmember {
         this.morale = morale;
     }
 
+    public Long getSpaceshipId() {
+        return spaceshipId;
+    }
+
+    public void setSpaceshipId(Long spaceshipId) {
+        this.spaceshipId = spaceshipId;
+    }
+
     public Long getId() {
         return id;
     }
@@ -35,4 +67,12 @@ public class Crewmember {
     public void setId(Long id) {
         this.id = id;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,22 @@
+package com.drbaltar.continuityweek4.Models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+public record CrewmemberView(Long id, String name, int morale, Long spaceshipId, long version) {
+
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("name", name);
+        generator.writeNumberField("morale", morale);
+        generator.writeFieldName("spaceshipId");
+        if (spaceshipId == null)
+            generator.writeNull();
+        else
+            generator.writeNumber(spaceshipId);
+        generator.writeNumberField("version", version);
+        generator.writeEndObject();
+    }
+}
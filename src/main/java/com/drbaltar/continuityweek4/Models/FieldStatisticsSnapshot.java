@@ -0,0 +1,13 @@
+package com.drbaltar.continuityweek4.Models;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+public record FieldStatisticsSnapshot(String field, long count, long sum, Double average, Integer min, Integer max,
+                                      List<Bucket> histogram, boolean exact, Instant reconciledAt, Duration maxStaleness) {
+
+    // Bounds are inclusive-exclusive; a null bound means the bucket is open on that side
+    public record Bucket(Integer from, Integer to, long count) {
+    }
+}
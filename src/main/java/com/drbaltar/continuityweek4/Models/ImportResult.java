@@ -0,0 +1,9 @@
+package com.drbaltar.continuityweek4.Models;
+
+// The checkpoint is the last row known to be committed; resend the same file with from/after set to it to resume
+public record ImportResult(long spaceships, long crewmembers, String checkpointType, Long checkpointId, String error) {
+
+    public boolean complete() {
+        return error == null;
+    }
+}
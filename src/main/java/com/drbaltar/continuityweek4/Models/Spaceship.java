@@ -2,16 +2,28 @@ package com.drbaltar.continuityweek4.Models;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_spaceship_name", columnList = "name"),
+        @Index(name = "idx_spaceship_fuel", columnList = "fuel")
+})
 public class Spaceship {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "spaceship_id")
+    @SequenceGenerator(name = "spaceship_id", sequenceName = "hibernate_sequence", allocationSize = 50)
     private Long id;
     private String name;
     private int fuel;
+    @Version
+    private long version;
 
     public String getName() {
         return name;
@@ -36,4 +48,12 @@ public class Spaceship {
     public Long getId() {
         return id;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,10 @@
+package com.drbaltar.continuityweek4.Models;
+
+import java.util.List;
+
+public record SpaceshipManifest(Long id, String name, int fuel, List<Crewmember> crew) {
+
+    public static SpaceshipManifest of(Spaceship spaceship, List<Crewmember> crew) {
+        return new SpaceshipManifest(spaceship.getId(), spaceship.getName(), spaceship.getFuel(), crew);
+    }
+}
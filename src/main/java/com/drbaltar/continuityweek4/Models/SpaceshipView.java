@@ -0,0 +1,18 @@
+package com.drbaltar.continuityweek4.Models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+public record SpaceshipView(Long id, String name, int fuel, long version) {
+
+    // Same fields and names Jackson produces for Spaceship, written without reflection or an intermediate tree
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        generator.writeStringField("name", name);
+        generator.writeNumberField("fuel", fuel);
+        generator.writeNumberField("version", version);
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,23 @@
+package com.drbaltar.continuityweek4.Models;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+// One row per entity table, bumped after every committed write so all nodes share the same list ETag
+@Entity
+@Table(name = "table_change")
+public class TableChange {
+
+    @Id
+    private String tableName;
+    private long changes;
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getChanges() {
+        return changes;
+    }
+}
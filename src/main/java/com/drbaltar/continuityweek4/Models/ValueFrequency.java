@@ -0,0 +1,4 @@
+package com.drbaltar.continuityweek4.Models;
+
+public record ValueFrequency(int value, long frequency) {
+}
@@ -1,7 +1,137 @@
 package com.drbaltar.continuityweek4.Repositories;
 
 import com.drbaltar.continuityweek4.Models.Crewmember;
-import org.springframework.data.repository.CrudRepository;
+import com.drbaltar.continuityweek4.Models.CrewmemberView;
+import com.drbaltar.continuityweek4.Models.ValueFrequency;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface CrewmemberRepository extends CrudRepository<Crewmember, Long> {
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface CrewmemberRepository extends JpaRepository<Crewmember, Long> {
+
+    @Override
+    @Cacheable(cacheNames = "crewmembers", key = "#p0", unless = "#result == null")
+    Optional<Crewmember> findById(Long id);
+
+    @Override
+    @CachePut(cacheNames = "crewmembers", key = "#result.id")
+    <S extends Crewmember> S save(S entity);
+
+    @Override
+    @CachePut(cacheNames = "crewmembers", key = "#result.id")
+    <S extends Crewmember> S saveAndFlush(S entity);
+
+    // Saved ids are evicted by SavedEntityEvictions
+    @Override
+    <S extends Crewmember> List<S> saveAll(Iterable<S> entities);
+
+    @Override
+    @CacheEvict(cacheNames = "crewmembers", key = "#p0")
+    void deleteById(Long id);
+
+    @Query("select new com.drbaltar.continuityweek4.Models.ValueFrequency(c.morale, count(c)) from Crewmember c group by c.morale")
+    List<ValueFrequency> findMoraleFrequencies();
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Crewmember> findWithLockById(Long id);
+
+    // Bulk deletes lock the rows they are about to remove, so only rows that really existed are reported and counted as deleted
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new com.drbaltar.continuityweek4.Models.CrewmemberView(c.id, c.name, c.morale, c.spaceshipId, c.version) from Crewmember c where c.id in :ids")
+    List<CrewmemberView> findViewsWithLock(@Param("ids") Collection<Long> ids);
+
+    // Bulk morale patches lock the rows their update will match and read the old morale, so statistics move each row exactly
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c.morale from Crewmember c where c.morale < :moraleBelow")
+    List<Integer> findMoralesWithLockByMoraleBelow(@Param("moraleBelow") int moraleBelow);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c.morale from Crewmember c where c.spaceshipId = :spaceshipId")
+    List<Integer> findMoralesWithLockBySpaceshipId(@Param("spaceshipId") Long spaceshipId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c.morale from Crewmember c where c.morale < :moraleBelow and c.spaceshipId = :spaceshipId")
+    List<Integer> findMoralesWithLockByMoraleBelowAndSpaceshipId(@Param("moraleBelow") int moraleBelow, @Param("spaceshipId") Long spaceshipId);
+
+    List<Crewmember> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("select new com.drbaltar.continuityweek4.Models.CrewmemberView(c.id, c.name, c.morale, c.spaceshipId, c.version) from Crewmember c where c.id > :after order by c.id")
+    List<CrewmemberView> findViewsByIdGreaterThan(@Param("after") Long after, Pageable pageable);
+
+    List<Crewmember> findByMoraleLessThanAndIdGreaterThanOrderByIdAsc(int morale, Long id, Pageable pageable);
+
+    List<Crewmember> findBySpaceshipIdOrderByIdAsc(Long spaceshipId);
+
+    List<Crewmember> findBySpaceshipIdBetweenOrderByIdAsc(Long firstSpaceshipId, Long lastSpaceshipId);
+
+    // Null fields keep their value; unassign is separate because a null spaceshipId is itself a meaningful PATCH
+    @CacheEvict(cacheNames = "crewmembers", key = "#p0")
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.name = coalesce(:name, c.name), c.morale = coalesce(:morale, c.morale), " +
+            "c.spaceshipId = case when :unassign = true then null else coalesce(:spaceshipId, c.spaceshipId) end, " +
+            "c.version = c.version + 1 where c.id = :id")
+    int updateFields(@Param("id") Long id, @Param("name") String name, @Param("morale") Integer morale,
+                     @Param("spaceshipId") Long spaceshipId, @Param("unassign") boolean unassign);
+
+    @CacheEvict(cacheNames = "crewmembers", key = "#p0")
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.morale = :morale, c.version = c.version + 1 where c.id = :id")
+    int updateMorale(@Param("id") Long id, @Param("morale") int morale);
+
+    @CacheEvict(cacheNames = "crewmembers", key = "#p0")
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.morale = c.morale + :delta, c.version = c.version + 1 where c.id = :id")
+    int addMorale(@Param("id") Long id, @Param("delta") int delta);
+
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.spaceshipId = null, c.version = c.version + 1 where c.spaceshipId = :spaceshipId")
+    int unassignFromSpaceship(@Param("spaceshipId") Long spaceshipId);
+
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.spaceshipId = null, c.version = c.version + 1 where c.spaceshipId in :spaceshipIds")
+    int unassignFromSpaceships(@Param("spaceshipIds") Collection<Long> spaceshipIds);
+
+    // One statement per filter combination, so each WHERE clause can use its index
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.name = coalesce(:name, c.name), c.morale = coalesce(:morale, c.morale), " +
+            "c.spaceshipId = coalesce(:newSpaceshipId, c.spaceshipId), c.version = c.version + 1 " +
+            "where c.morale < :moraleBelow")
+    int updateAllWithMoraleBelow(@Param("moraleBelow") int moraleBelow,
+                                 @Param("name") String name, @Param("morale") Integer morale, @Param("newSpaceshipId") Long newSpaceshipId);
+
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.name = coalesce(:name, c.name), c.morale = coalesce(:morale, c.morale), " +
+            "c.spaceshipId = coalesce(:newSpaceshipId, c.spaceshipId), c.version = c.version + 1 " +
+            "where c.spaceshipId = :spaceshipId")
+    int updateAllInSpaceship(@Param("spaceshipId") Long spaceshipId,
+                             @Param("name") String name, @Param("morale") Integer morale, @Param("newSpaceshipId") Long newSpaceshipId);
+
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Crewmember c set c.name = coalesce(:name, c.name), c.morale = coalesce(:morale, c.morale), " +
+            "c.spaceshipId = coalesce(:newSpaceshipId, c.spaceshipId), c.version = c.version + 1 " +
+            "where c.morale < :moraleBelow and c.spaceshipId = :spaceshipId")
+    int updateAllWithMoraleBelowInSpaceship(@Param("moraleBelow") int moraleBelow, @Param("spaceshipId") Long spaceshipId,
+                                            @Param("name") String name, @Param("morale") Integer morale,
+                                            @Param("newSpaceshipId") Long newSpaceshipId);
+
+    @CacheEvict(cacheNames = "crewmembers", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Crewmember c where c.id in :ids")
+    int deleteAllWithIds(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,41 @@
+package com.drbaltar.continuityweek4.Repositories;
+
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+// @CacheEvict takes a single key, so saveAll evicts the ids it saved here instead of clearing the whole cache per batch chunk
+@Aspect
+@Component
+public class SavedEntityEvictions {
+
+    private final CacheManager cacheManager;
+
+    public SavedEntityEvictions(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @AfterReturning(pointcut = "target(com.drbaltar.continuityweek4.Repositories.SpaceshipRepository) && execution(* saveAll(..))",
+            returning = "saved")
+    public void evictSavedSpaceships(List<Spaceship> saved) {
+        evict("spaceships", saved, Spaceship::getId);
+    }
+
+    @AfterReturning(pointcut = "target(com.drbaltar.continuityweek4.Repositories.CrewmemberRepository) && execution(* saveAll(..))",
+            returning = "saved")
+    public void evictSavedCrewmembers(List<Crewmember> saved) {
+        evict("crewmembers", saved, Crewmember::getId);
+    }
+
+    private <T> void evict(String cacheName, List<T> saved, Function<T, Long> idOf) {
+        var cache = Objects.requireNonNull(cacheManager.getCache(cacheName));
+        saved.forEach(entity -> cache.evict(idOf.apply(entity)));
+    }
+}
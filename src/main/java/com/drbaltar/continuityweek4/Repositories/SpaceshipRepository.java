@@ -1,7 +1,116 @@
 package com.drbaltar.continuityweek4.Repositories;
 
 import com.drbaltar.continuityweek4.Models.Spaceship;
-import org.springframework.data.repository.CrudRepository;
+import com.drbaltar.continuityweek4.Models.SpaceshipView;
+import com.drbaltar.continuityweek4.Models.ValueFrequency;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface SpaceshipRepository extends CrudRepository<Spaceship, Long> {
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface SpaceshipRepository extends JpaRepository<Spaceship, Long> {
+
+    @Override
+    @Cacheable(cacheNames = "spaceships", key = "#p0", unless = "#result == null")
+    Optional<Spaceship> findById(Long id);
+
+    @Override
+    @CachePut(cacheNames = "spaceships", key = "#result.id")
+    <S extends Spaceship> S save(S entity);
+
+    @Override
+    @CachePut(cacheNames = "spaceships", key = "#result.id")
+    <S extends Spaceship> S saveAndFlush(S entity);
+
+    // Saved ids are evicted by SavedEntityEvictions
+    @Override
+    <S extends Spaceship> List<S> saveAll(Iterable<S> entities);
+
+    @Override
+    @CacheEvict(cacheNames = "spaceships", key = "#p0")
+    void deleteById(Long id);
+
+    @Query("select new com.drbaltar.continuityweek4.Models.ValueFrequency(s.fuel, count(s)) from Spaceship s group by s.fuel")
+    List<ValueFrequency> findFuelFrequencies();
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Spaceship> findWithLockById(Long id);
+
+    // Bulk deletes lock the rows they are about to remove, so only rows that really existed are reported and counted as deleted
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select new com.drbaltar.continuityweek4.Models.SpaceshipView(s.id, s.name, s.fuel, s.version) from Spaceship s where s.id in :ids")
+    List<SpaceshipView> findViewsWithLock(@Param("ids") Collection<Long> ids);
+
+    // Bulk fuel patches lock the rows their update will match and read the old fuel, so statistics move each row exactly
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s.fuel from Spaceship s where s.name like concat(:#{escape(#namePrefix)}, '%') escape :#{escapeCharacter()}")
+    List<Integer> findFuelsWithLockByNamePrefix(@Param("namePrefix") String namePrefix);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s.fuel from Spaceship s where s.fuel < :fuelBelow")
+    List<Integer> findFuelsWithLockByFuelBelow(@Param("fuelBelow") int fuelBelow);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s.fuel from Spaceship s where s.name like concat(:#{escape(#namePrefix)}, '%') escape :#{escapeCharacter()} and s.fuel < :fuelBelow")
+    List<Integer> findFuelsWithLockByNamePrefixAndFuelBelow(@Param("namePrefix") String namePrefix, @Param("fuelBelow") int fuelBelow);
+
+    List<Spaceship> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    // Constructor projection: rows are read straight into records, skipping entity hydration and the persistence context
+    @Query("select new com.drbaltar.continuityweek4.Models.SpaceshipView(s.id, s.name, s.fuel, s.version) from Spaceship s where s.id > :after order by s.id")
+    List<SpaceshipView> findViewsByIdGreaterThan(@Param("after") Long after, Pageable pageable);
+
+    List<Spaceship> findByNameStartingWithAndIdGreaterThanOrderByIdAsc(String name, Long id, Pageable pageable);
+
+    List<Spaceship> findByFuelLessThanAndIdGreaterThanOrderByIdAsc(int fuel, Long id, Pageable pageable);
+
+    List<Spaceship> findByNameStartingWithAndFuelLessThanAndIdGreaterThanOrderByIdAsc(String name, int fuel, Long id, Pageable pageable);
+
+    // Null fields keep their value, so any combination of PATCH fields is one statement and one version bump
+    @CacheEvict(cacheNames = "spaceships", key = "#p0")
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Spaceship s set s.name = coalesce(:name, s.name), s.fuel = coalesce(:fuel, s.fuel), s.version = s.version + 1 where s.id = :id")
+    int updateFields(@Param("id") Long id, @Param("name") String name, @Param("fuel") Integer fuel);
+
+    @CacheEvict(cacheNames = "spaceships", key = "#p0")
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Spaceship s set s.fuel = s.fuel + :delta, s.version = s.version + 1 where s.id = :id")
+    int addFuel(@Param("id") Long id, @Param("delta") int delta);
+
+    // Unset fields keep their value, so every requested change lands in the one statement and sees the same matching rows.
+    // Each filter combination has its own statement because an "(:x is null or ...)" guard keeps MySQL off the index.
+    // The prefix is escaped the same way as the derived StartingWith search, so % and _ match literally
+    @CacheEvict(cacheNames = "spaceships", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Spaceship s set s.name = coalesce(:name, s.name), s.fuel = coalesce(:fuel, s.fuel), s.version = s.version + 1 " +
+            "where s.name like concat(:#{escape(#namePrefix)}, '%') escape :#{escapeCharacter()}")
+    int updateAllWithNamePrefix(@Param("namePrefix") String namePrefix, @Param("name") String name, @Param("fuel") Integer fuel);
+
+    @CacheEvict(cacheNames = "spaceships", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Spaceship s set s.name = coalesce(:name, s.name), s.fuel = coalesce(:fuel, s.fuel), s.version = s.version + 1 " +
+            "where s.fuel < :fuelBelow")
+    int updateAllWithFuelBelow(@Param("fuelBelow") int fuelBelow, @Param("name") String name, @Param("fuel") Integer fuel);
+
+    @CacheEvict(cacheNames = "spaceships", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Spaceship s set s.name = coalesce(:name, s.name), s.fuel = coalesce(:fuel, s.fuel), s.version = s.version + 1 " +
+            "where s.name like concat(:#{escape(#namePrefix)}, '%') escape :#{escapeCharacter()} and s.fuel < :fuelBelow")
+    int updateAllWithNamePrefixAndFuelBelow(@Param("namePrefix") String namePrefix, @Param("fuelBelow") int fuelBelow,
+                                            @Param("name") String name, @Param("fuel") Integer fuel);
+
+    @CacheEvict(cacheNames = "spaceships", allEntries = true)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Spaceship s where s.id in :ids")
+    int deleteAllWithIds(@Param("ids") Collection<Long> ids);
 }
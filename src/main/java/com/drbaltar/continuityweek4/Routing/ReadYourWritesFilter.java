@@ -0,0 +1,61 @@
+package com.drbaltar.continuityweek4.Routing;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE_NAME = "primary-until";
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final Duration window;
+
+    public ReadYourWritesFilter(Duration window) {
+        this.window = window;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!SAFE_METHODS.contains(request.getMethod())) {
+            // Set before the handler runs because the response may already be committed once it returns
+            var cookie = new Cookie(COOKIE_NAME, String.valueOf(System.currentTimeMillis() + window.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) window.toSeconds() + 1);
+            response.addCookie(cookie);
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        ReplicaRoutingDataSource.setPinnedToPrimary(recentlyWrote(request));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.setPinnedToPrimary(false);
+        }
+    }
+
+    private static boolean recentlyWrote(HttpServletRequest request) {
+        if (request.getCookies() == null)
+            return false;
+        for (var cookie : request.getCookies()) {
+            if (!COOKIE_NAME.equals(cookie.getName()))
+                continue;
+            try {
+                return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
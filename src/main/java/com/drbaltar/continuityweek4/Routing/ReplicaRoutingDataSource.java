@@ -0,0 +1,114 @@
+package com.drbaltar.continuityweek4.Routing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    private static final ThreadLocal<Boolean> pinnedToPrimary = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "replica-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration healthCheckInterval) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        healthChecker.scheduleWithFixedDelay(this::checkReplicaHealth, healthCheckInterval.toMillis(), healthCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Set for requests from a client that has just written, so it reads its own changes before replication catches up
+    public static void setPinnedToPrimary(boolean pinned) {
+        if (pinned)
+            pinnedToPrimary.set(true);
+        else
+            pinnedToPrimary.remove();
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return pinnedToPrimary.get() != null;
+    }
+
+    // Only called once the first statement runs (behind a LazyConnectionDataSourceProxy), when the transaction's read-only flag is known
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || isPinnedToPrimary())
+            return primary.getConnection();
+
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            var replica = replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+            if (!replica.healthy)
+                continue;
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                replica.markHealthy(false, e);
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    void checkReplicaHealth() {
+        for (var replica : replicas) {
+            try (var connection = replica.dataSource.getConnection()) {
+                replica.markHealthy(connection.isValid(VALIDATION_TIMEOUT_SECONDS), null);
+            } catch (SQLException e) {
+                replica.markHealthy(false, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        healthChecker.shutdown();
+        for (var replica : replicas)
+            if (replica.dataSource instanceof Closeable closeable)
+                closeable.close();
+    }
+
+    private static final class Replica {
+
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private void markHealthy(boolean healthy, SQLException cause) {
+            if (this.healthy == healthy)
+                return;
+            this.healthy = healthy;
+            if (healthy)
+                log.info("Read replica {} is healthy again, routing reads back to it", dataSource);
+            else
+                log.warn("Ejecting read replica {}, reads fall back to the other replicas or the primary", dataSource, cause);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.drbaltar.continuityweek4.Transfer;
+
+import com.drbaltar.continuityweek4.Counters.FieldStatistics;
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.ImportResult;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.DatabaseMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class FleetTransfer {
+
+    public static final String SPACESHIP = "spaceship";
+    public static final String CREWMEMBER = "crewmember";
+    // Parents before children, so crewmembers' foreign keys always resolve on import
+    public static final List<String> TABLES = List.of(SPACESHIP, CREWMEMBER);
+
+    private static final Logger log = LoggerFactory.getLogger(FleetTransfer.class);
+    private static final int FETCH_SIZE = 1000;
+    private static final int ROWS_PER_INSERT = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, String> EXPORT_SQL = Map.of(
+            SPACESHIP, "select id, name, fuel, version from spaceship where id > ? order by id",
+            CREWMEMBER, "select id, name, morale, spaceship_id, version from crewmember where id > ? order by id");
+    private static final Map<String, String> FULL_INSERT_SQL = Map.of(
+            SPACESHIP, insertSql(SPACESHIP, ROWS_PER_INSERT),
+            CREWMEMBER, insertSql(CREWMEMBER, ROWS_PER_INSERT));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final JdbcTemplate cursorTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final TransactionTemplate sequenceTransaction;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader rowReader;
+    private final CacheManager cacheManager;
+    private final TableChangeTokens changeTokens;
+    private final ChangeEventBus eventBus;
+    private final FieldStatistics fuelStatistics;
+    private final FieldStatistics moraleStatistics;
+
+    public FleetTransfer(DataSource dataSource, EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager,
+                         ObjectMapper objectMapper, CacheManager cacheManager, TableChangeTokens changeTokens, ChangeEventBus eventBus,
+                         FieldStatistics fuelStatistics, FieldStatistics moraleStatistics) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.entityManagerFactory = entityManagerFactory;
+        this.cursorTemplate = new JdbcTemplate(dataSource);
+        this.cursorTemplate.setFetchSize(streamingFetchSize(dataSource));
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        // The generator takes its next block in a transaction of its own, which would wait on a sequence row the caller still holds
+        this.sequenceTransaction = new TransactionTemplate(transactionManager);
+        this.sequenceTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.objectMapper = objectMapper;
+        this.rowReader = objectMapper.readerFor(TransferRow.class);
+        this.cacheManager = cacheManager;
+        this.changeTokens = changeTokens;
+        this.eventBus = eventBus;
+        this.fuelStatistics = fuelStatistics;
+        this.moraleStatistics = moraleStatistics;
+    }
+
+    // Streams every row after the checkpoint as gzip-compressed NDJSON; memory use is one row or fetch page regardless of table size.
+    // Only a complete export gets its trailer and a finished gzip stream: on failure the stream is left open and the
+    // exception propagates, so the client sees a broken download rather than a valid but shorter backup.
+    public void export(OutputStream out, String from, long after) throws IOException {
+        var generator = objectMapper.getFactory().createGenerator(new GZIPOutputStream(out, BUFFER_SIZE));
+        generator.setRootValueSeparator(null);
+        var rowCounts = new long[TABLES.size()];
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                for (var table : TABLES.subList(TABLES.indexOf(from), TABLES.size())) {
+                    var afterId = table.equals(from) ? after : 0L;
+                    cursorTemplate.query(EXPORT_SQL.get(table), (RowCallbackHandler) resultSet -> {
+                        var row = SPACESHIP.equals(table)
+                                ? TransferRow.spaceship(resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3), resultSet.getLong(4))
+                                : TransferRow.crewmember(resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3),
+                                resultSet.getObject(4, Long.class), resultSet.getLong(5));
+                        try {
+                            row.writeJson(generator);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        rowCounts[TABLES.indexOf(table)]++;
+                    }, afterId);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        TransferRow.trailer(rowCounts[0], rowCounts[1]).writeJson(generator);
+        generator.close();
+    }
+
+    // Rows keep their exported ids and versions. Each multi-row insert commits on its own, so a failed upload leaves
+    // everything up to the returned checkpoint in place and rows at or before the checkpoint are skipped on the retry.
+    public ImportResult importFrom(InputStream in, String from, long after) {
+        var progress = new Progress(from, after);
+        var chunk = new ArrayList<TransferRow>(ROWS_PER_INSERT);
+        long line = 0;
+        try (var rows = rowReader.<TransferRow>readValues(new GZIPInputStream(in, BUFFER_SIZE))) {
+            TransferRow trailer = null;
+            while (trailer == null && rows.hasNextValue()) {
+                var row = rows.nextValue();
+                line++;
+                if (row.isTrailer()) {
+                    trailer = row;
+                    continue;
+                }
+                if (!TABLES.contains(row.type()))
+                    throw new InvalidFileException("Unknown row type at line " + line);
+                progress.read(row);
+                if (progress.covers(row))
+                    continue;
+                if (chunk.size() == ROWS_PER_INSERT || (!chunk.isEmpty() && !chunk.get(0).type().equals(row.type()))) {
+                    insert(chunk, progress);
+                    chunk.clear();
+                }
+                chunk.add(row);
+            }
+            // A file without its trailer was cut short on the way here; keep what already committed and let the retry resume
+            if (trailer == null)
+                throw new InvalidFileException("File ends at line " + line + " without a trailer, the export is incomplete");
+            if (rows.hasNextValue())
+                throw new InvalidFileException("Rows follow the trailer at line " + line);
+            if (!progress.matches(trailer))
+                throw new InvalidFileException("Row counts do not match the trailer at line " + line + ", the export is incomplete");
+            if (!chunk.isEmpty())
+                insert(chunk, progress);
+            return progress.result(null);
+        } catch (InvalidFileException e) {
+            return progress.result(e.getMessage());
+        } catch (IOException e) {
+            return progress.result("Malformed or truncated file after line " + line);
+        } catch (RuntimeException e) {
+            log.error("Fleet import failed after line {}", line, e);
+            return progress.result("Rows after the checkpoint could not be written");
+        } finally {
+            if (progress.maxId > 0)
+                afterImport(progress);
+        }
+    }
+
+    // Connector/J buffers the whole result for a positive fetch size unless useCursorFetch=true, which not every profile
+    // sets; Integer.MIN_VALUE streams row by row in any configuration. Each export query is read to the end before the
+    // next one runs, as a streaming result requires. Other drivers page through a cursor with a positive fetch size.
+    private static int streamingFetchSize(DataSource dataSource) {
+        try {
+            var product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "MySQL".equals(product) ? Integer.MIN_VALUE : FETCH_SIZE;
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Could not determine the database product for fleet exports", e);
+        }
+    }
+
+    private void insert(List<TransferRow> rows, Progress progress) {
+        var type = rows.get(0).type();
+        var sql = rows.size() == ROWS_PER_INSERT ? FULL_INSERT_SQL.get(type) : insertSql(type, rows.size());
+        jdbcTemplate.update(sql, statement -> {
+            var index = 1;
+            for (var row : rows) {
+                statement.setLong(index++, row.id());
+                statement.setString(index++, row.name());
+                if (SPACESHIP.equals(type)) {
+                    statement.setInt(index++, row.fuel());
+                } else {
+                    statement.setInt(index++, row.morale());
+                    statement.setObject(index++, row.spaceshipId(), Types.BIGINT);
+                }
+                statement.setLong(index++, row.version());
+            }
+        });
+        progress.committed(rows);
+    }
+
+    private static String insertSql(String type, int rows) {
+        var tuple = SPACESHIP.equals(type) ? "(?, ?, ?, ?)" : "(?, ?, ?, ?, ?)";
+        var columns = SPACESHIP.equals(type) ? "spaceship (id, name, fuel, version)" : "crewmember (id, name, morale, spaceship_id, version)";
+        return "insert into " + columns + " values " + String.join(", ", Collections.nCopies(rows, tuple));
+    }
+
+    private void afterImport(Progress progress) {
+        sequenceTransaction.executeWithoutResult(status -> advanceIdSequence(progress.maxId));
+        skipAllocatedIds(progress.maxId);
+        if (progress.spaceships > 0) {
+            Objects.requireNonNull(cacheManager.getCache("spaceships")).clear();
+            changeTokens.spaceshipsChanged();
+            fuelStatistics.recordUnknownChange();
+            eventBus.publish(SPACESHIP, ChangeEventBus.CREATED, null, null);
+        }
+        if (progress.crewmembers > 0) {
+            Objects.requireNonNull(cacheManager.getCache("crewmembers")).clear();
+            changeTokens.crewmembersChanged();
+            moraleStatistics.recordUnknownChange();
+            eventBus.publish(CREWMEMBER, ChangeEventBus.CREATED, null, null);
+        }
+    }
+
+    // Imported ids bypass Hibernate's generator, so it has to be moved past them before the next save hands one out again
+    private void advanceIdSequence(long maxId) {
+        var databaseProduct = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        if ("H2".equals(databaseProduct)) {
+            var next = jdbcTemplate.queryForObject("select next value for hibernate_sequence", Long.class);
+            if (next != null && next <= maxId)
+                jdbcTemplate.execute("alter sequence hibernate_sequence restart with " + (maxId + 1));
+        } else {
+            // MySQL has no sequences; Hibernate emulates this one with a single-row table
+            jdbcTemplate.update("update hibernate_sequence set next_val = ? where next_val <= ?", maxId + 1, maxId);
+        }
+    }
+
+    // Hibernate's pooled-lo optimizer hands out ids from a block it already holds in memory, which can overlap the imported
+    // rows even after the sequence moved. Drawing ids until one clears maxId forces this node onto a fresh block from the
+    // sequence. Other nodes keep their blocks until those run out, so restart them after importing into a live cluster.
+    private void skipAllocatedIds(long maxId) {
+        var sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        try (var session = sessionFactory.openSession().unwrap(SessionImplementor.class)) {
+            for (var entity : List.of(Spaceship.class, Crewmember.class)) {
+                var generator = sessionFactory.getIdentifierGenerator(entity.getName());
+                long id;
+                do {
+                    id = ((Number) generator.generate(session, null)).longValue();
+                } while (id <= maxId);
+            }
+        }
+    }
+
+    // Carries only messages written here, so nothing from a driver or parser reaches the client
+    private static final class InvalidFileException extends RuntimeException {
+
+        private InvalidFileException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Progress {
+
+        private String checkpointType;
+        private long checkpointId;
+        private long spaceships;
+        private long crewmembers;
+        private long maxId;
+        private long spaceshipsRead;
+        private long crewmembersRead;
+
+        private Progress(String checkpointType, long checkpointId) {
+            this.checkpointType = checkpointType;
+            this.checkpointId = checkpointId;
+        }
+
+        private void read(TransferRow row) {
+            if (SPACESHIP.equals(row.type()))
+                spaceshipsRead++;
+            else
+                crewmembersRead++;
+        }
+
+        private boolean matches(TransferRow trailer) {
+            return trailer.spaceships() == spaceshipsRead && trailer.crewmembers() == crewmembersRead;
+        }
+
+        private boolean covers(TransferRow row) {
+            var order = Integer.compare(TABLES.indexOf(row.type()), TABLES.indexOf(checkpointType));
+            return order < 0 || (order == 0 && row.id() <= checkpointId);
+        }
+
+        private void committed(List<TransferRow> rows) {
+            var last = rows.get(rows.size() - 1);
+            checkpointType = last.type();
+            checkpointId = last.id();
+            if (SPACESHIP.equals(last.type()))
+                spaceships += rows.size();
+            else
+                crewmembers += rows.size();
+            for (var row : rows)
+                maxId = Math.max(maxId, row.id());
+        }
+
+        private ImportResult result(String error) {
+            return new ImportResult(spaceships, crewmembers, checkpointType, checkpointId, error);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.drbaltar.continuityweek4.Transfer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+// One line of an export file; fuel is only set for spaceships, morale and spaceshipId only for crewmembers, and the
+// spaceships/crewmembers counts only on the trailer line that closes a complete export
+public record TransferRow(String type, long id, String name, int fuel, int morale, Long spaceshipId, long version,
+                          long spaceships, long crewmembers) {
+
+    static final String TRAILER = "trailer";
+
+    static TransferRow spaceship(long id, String name, int fuel, long version) {
+        return new TransferRow(FleetTransfer.SPACESHIP, id, name, fuel, 0, null, version, 0, 0);
+    }
+
+    static TransferRow crewmember(long id, String name, int morale, Long spaceshipId, long version) {
+        return new TransferRow(FleetTransfer.CREWMEMBER, id, name, 0, morale, spaceshipId, version, 0, 0);
+    }
+
+    static TransferRow trailer(long spaceships, long crewmembers) {
+        return new TransferRow(TRAILER, 0, null, 0, 0, null, 0, spaceships, crewmembers);
+    }
+
+    boolean isTrailer() {
+        return TRAILER.equals(type);
+    }
+
+    void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", type);
+        if (isTrailer()) {
+            generator.writeNumberField("spaceships", spaceships);
+            generator.writeNumberField("crewmembers", crewmembers);
+        } else {
+            generator.writeNumberField("id", id);
+            generator.writeStringField("name", name);
+            if (FleetTransfer.SPACESHIP.equals(type)) {
+                generator.writeNumberField("fuel", fuel);
+            } else {
+                generator.writeNumberField("morale", morale);
+                generator.writeFieldName("spaceshipId");
+                if (spaceshipId == null)
+                    generator.writeNull();
+                else
+                    generator.writeNumber(spaceshipId);
+            }
+            generator.writeNumberField("version", version);
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
@@ -0,0 +1,29 @@
+create table hibernate_sequence (
+    next_val bigint
+) engine = InnoDB;
+
+insert into hibernate_sequence values (1);
+
+create table spaceship (
+    id      bigint  not null,
+    fuel    integer not null,
+    name    varchar(255),
+    version bigint  not null,
+    primary key (id)
+) engine = InnoDB;
+
+create index idx_spaceship_name on spaceship (name);
+create index idx_spaceship_fuel on spaceship (fuel);
+
+create table crewmember (
+    id           bigint  not null,
+    morale       integer not null,
+    name         varchar(255),
+    spaceship_id bigint,
+    version      bigint  not null,
+    primary key (id),
+    constraint fk_crewmember_spaceship foreign key (spaceship_id) references spaceship (id)
+) engine = InnoDB;
+
+create index idx_crewmember_spaceship_id on crewmember (spaceship_id);
+create index idx_crewmember_morale on crewmember (morale);
@@ -0,0 +1,7 @@
+create table table_change (
+    table_name varchar(255) not null,
+    changes    bigint       not null,
+    primary key (table_name)
+) engine = InnoDB;
+
+insert into table_change values ('spaceship', 0), ('crewmember', 0);
@@ -0,0 +1,58 @@
+package com.drbaltar.continuityweek4.Admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void shouldShedOnceLimitIsInFlight() {
+        var limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, Duration.ofMillis(100));
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        limiter.release(FAST, false);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void shouldBackOffOnSlowOrFailedCallsAndRecoverOnFastOnes() {
+        var limiter = new AdaptiveConcurrencyLimiter(10, 1, 10, Duration.ofMillis(100));
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.release(SLOW, false);
+        }
+        assertEquals(1, limiter.getLimit());
+
+        limiter.tryAcquire();
+        limiter.release(FAST, true);
+        assertEquals(1, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+            limiter.release(FAST, false);
+        }
+        assertTrue(limiter.getLimit() > 1);
+    }
+
+    @Test
+    void shouldNeverGrowPastMaxLimit() {
+        var limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, Duration.ofMillis(100));
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.tryAcquire();
+            limiter.release(FAST, false);
+            limiter.release(FAST, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+}
@@ -0,0 +1,31 @@
+package com.drbaltar.continuityweek4.Admission;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdmissionControlFilterTest {
+
+    @Test
+    void shouldKeyOnRemoteAddressWhenNoHeaderIsConfigured() {
+        var request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("X-Client-Id", "fleet-ops");
+
+        assertEquals("10.0.0.1", AdmissionControlFilter.clientKey("").apply(request));
+    }
+
+    @Test
+    void shouldKeyOnConfiguredHeaderAndFallBackToRemoteAddress() {
+        var clientKey = AdmissionControlFilter.clientKey("X-Client-Id");
+        var identified = new MockHttpServletRequest();
+        identified.setRemoteAddr("10.0.0.1");
+        identified.addHeader("X-Client-Id", "fleet-ops");
+        var anonymous = new MockHttpServletRequest();
+        anonymous.setRemoteAddr("10.0.0.2");
+
+        assertEquals("X-Client-Id:fleet-ops", clientKey.apply(identified));
+        assertEquals("10.0.0.2", clientKey.apply(anonymous));
+    }
+}
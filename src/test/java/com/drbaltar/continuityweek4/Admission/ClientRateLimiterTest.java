@@ -0,0 +1,32 @@
+package com.drbaltar.continuityweek4.Admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void shouldAdmitBurstThenRejectWithTimeUntilNextPermit() {
+        var limiter = new ClientRateLimiter(10, 5);
+        for (int i = 0; i < 5; i++)
+            assertEquals(0, limiter.tryAcquire("10.0.0.1", 0));
+
+        var wait = limiter.tryAcquire("10.0.0.1", 0);
+        assertEquals(SECOND / 10, wait);
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", wait));
+    }
+
+    @Test
+    void shouldTrackEachClientSeparately() {
+        var limiter = new ClientRateLimiter(1, 1);
+        assertEquals(0, limiter.tryAcquire("10.0.0.1", 0));
+        assertTrue(limiter.tryAcquire("10.0.0.1", 0) > 0);
+        assertEquals(0, limiter.tryAcquire("10.0.0.2", 0));
+    }
+}
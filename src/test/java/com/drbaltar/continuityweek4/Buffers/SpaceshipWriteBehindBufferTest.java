@@ -0,0 +1,157 @@
+package com.drbaltar.continuityweek4.Buffers;
+
+import com.drbaltar.continuityweek4.Counters.TableChangeTokens;
+import com.drbaltar.continuityweek4.Events.ChangeEventBus;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SpaceshipWriteBehindBufferTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ConcurrentMapCache cache = new ConcurrentMapCache("spaceships");
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChangeEventBus eventBus = mock(ChangeEventBus.class);
+    private SpaceshipWriteBehindBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        // Every flushed ship matches one row unless a test says otherwise
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any()))
+                .thenAnswer(invocation -> new int[][]{ones(invocation.<Collection<?>>getArgument(1).size())});
+        buffer = new SpaceshipWriteBehindBuffer(jdbcTemplate, cache, mock(TableChangeTokens.class),
+                eventBus, meterRegistry, 2, 10, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.close();
+    }
+
+    @Test
+    void shouldCoalesceUpdatesToTheSameSpaceshipWithLastWriteWinning() {
+        assertTrue(buffer.offer(getTestSpaceship(1L, 100)));
+        assertTrue(buffer.offer(getTestSpaceship(1L, 90)));
+        assertTrue(buffer.offer(getTestSpaceship(1L, 80)));
+        assertEquals(1.0, meterRegistry.get("spaceship.write_behind.pending").gauge().value());
+
+        buffer.flush();
+
+        var batchCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), batchCaptor.capture(), eq(1), any());
+        var flushedSpaceship = (Spaceship) List.copyOf(batchCaptor.getValue()).get(0);
+        assertEquals(80, flushedSpaceship.getFuel());
+        assertEquals(0.0, meterRegistry.get("spaceship.write_behind.pending").gauge().value());
+        assertEquals(1, meterRegistry.get("spaceship.write_behind.flush").timer().count());
+    }
+
+    @Test
+    void shouldRejectNewSpaceshipsWhenFullButKeepAcceptingPendingOnes() {
+        assertTrue(buffer.offer(getTestSpaceship(1L, 100)));
+        assertTrue(buffer.offer(getTestSpaceship(2L, 100)));
+
+        assertFalse(buffer.offer(getTestSpaceship(3L, 100)));
+        assertTrue(buffer.offer(getTestSpaceship(2L, 50)));
+    }
+
+    @Test
+    void shouldEvictCachedCopiesOfFlushedSpaceships() {
+        cache.put(1L, getTestSpaceship(1L, 100));
+        buffer.offer(getTestSpaceship(1L, 10));
+
+        buffer.flush();
+
+        assertNull(cache.get(1L));
+    }
+
+    @Test
+    void shouldKeepFailedUpdatesForTheNextFlush() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any()))
+                .thenThrow(new IllegalStateException("database unavailable"))
+                .thenReturn(new int[][]{{1}});
+        buffer.offer(getTestSpaceship(1L, 10));
+
+        assertThrows(IllegalStateException.class, buffer::flush);
+        buffer.flush();
+
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyCollection(), eq(1), any());
+    }
+
+    @Test
+    void shouldFlushOnlyRequestedSpaceshipsAheadOfSynchronousWrite() {
+        buffer.offer(getTestSpaceship(1L, 10));
+        buffer.offer(getTestSpaceship(2L, 20));
+
+        buffer.flush(List.of(1L, 3L));
+
+        var batchCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), batchCaptor.capture(), eq(1), any());
+        assertEquals(1L, ((Spaceship) List.copyOf(batchCaptor.getValue()).get(0)).getId());
+        assertEquals(1.0, meterRegistry.get("spaceship.write_behind.pending").gauge().value());
+    }
+
+    @Test
+    void shouldNeverHoldMoreShipsThanCapacityUnderConcurrentOffers() throws Exception {
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var offers = new ArrayList<Future<Boolean>>();
+            for (long id = 1; id <= 1000; id++) {
+                var spaceship = getTestSpaceship(id, 10);
+                offers.add(executor.submit(() -> buffer.offer(spaceship)));
+            }
+            long accepted = 0;
+            for (var offer : offers)
+                accepted += offer.get(5, TimeUnit.SECONDS) ? 1 : 0;
+
+            assertEquals(2, accepted);
+            assertEquals(2.0, meterRegistry.get("spaceship.write_behind.pending").gauge().value());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldOnlyAnnounceShipsWhoseRowWasUpdated() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any())).thenReturn(new int[][]{{1, 0}});
+        buffer.offer(getTestSpaceship(1L, 10));
+        buffer.offer(getTestSpaceship(2L, 20));
+
+        buffer.flush();
+
+        verify(eventBus).publish("spaceship", ChangeEventBus.UPDATED, 1L, null);
+        verify(eventBus, never()).publish("spaceship", ChangeEventBus.UPDATED, 2L, null);
+        assertEquals(1, meterRegistry.get("spaceship.write_behind.missing").counter().count());
+    }
+
+    private static int[] ones(int length) {
+        var counts = new int[length];
+        Arrays.fill(counts, 1);
+        return counts;
+    }
+
+    private Spaceship getTestSpaceship(Long id, int fuel) {
+        var testSpaceship = new Spaceship();
+        testSpaceship.setId(id);
+        testSpaceship.setName("Apollo 11");
+        testSpaceship.setFuel(fuel);
+        return testSpaceship;
+    }
+}
@@ -0,0 +1,122 @@
+package com.drbaltar.continuityweek4.Coalescing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight singleFlight = new SingleFlight("test", Duration.ofSeconds(5), meterRegistry);
+
+    @Test
+    void shouldShareOneLoadAcrossConcurrentCallersForTheSameKey() throws Exception {
+        int callers = 16;
+        var loads = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(callers);
+        try {
+            var results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < callers; i++)
+                results.add(executor.submit(() -> {
+                    try {
+                        return singleFlight.execute("ship-1", Duration.ZERO, () -> {
+                            loads.incrementAndGet();
+                            release.await();
+                            return new Object();
+                        });
+                    } catch (Throwable e) {
+                        throw new ExecutionException(e);
+                    }
+                }));
+            // Hold the load open until every other caller has joined it
+            while (coalescedCalls() < callers - 1)
+                Thread.sleep(1);
+            release.countDown();
+
+            var first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (var result : results)
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldReuseFinishedResultOnlyWithinWindow() throws Throwable {
+        var loads = new AtomicInteger();
+        SingleFlight.Loader<Integer> loader = loads::incrementAndGet;
+
+        assertEquals(1, singleFlight.<Integer>execute("list", Duration.ofMinutes(1), loader));
+        assertEquals(1, singleFlight.<Integer>execute("list", Duration.ofMinutes(1), loader));
+        assertEquals(2, singleFlight.<Integer>execute("ship-1", Duration.ZERO, loader));
+        assertEquals(3, singleFlight.<Integer>execute("ship-1", Duration.ZERO, loader));
+    }
+
+    @Test
+    void shouldNotReplayFailureToLaterCallers() throws Throwable {
+        var failure = new IllegalStateException("database down");
+
+        assertSame(failure, assertThrows(IllegalStateException.class,
+                () -> singleFlight.execute("list", Duration.ofMinutes(1), () -> {
+                    throw failure;
+                })));
+        assertEquals("recovered", singleFlight.execute("list", Duration.ofMinutes(1), () -> "recovered"));
+    }
+
+    @Test
+    void shouldHandEachSharingCallerItsOwnCopy() throws Throwable {
+        SingleFlight.Loader<List<String>> loader = () -> new ArrayList<>(List.of("Apollo 11"));
+
+        var first = singleFlight.execute("list", Duration.ofMinutes(1), ArrayList::new, loader);
+        var second = singleFlight.execute("list", Duration.ofMinutes(1), ArrayList::new, loader);
+
+        assertNotSame(first, second);
+        assertEquals(first, second);
+    }
+
+    @Test
+    void shouldRunOwnLoadOnceJoinTimeoutPasses() throws Throwable {
+        var impatient = new SingleFlight("test", Duration.ofMillis(50), meterRegistry);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var stuck = executor.submit(() -> {
+                try {
+                    return impatient.execute("ship-1", Duration.ZERO, () -> {
+                        started.countDown();
+                        release.await();
+                        return "stuck";
+                    });
+                } catch (Throwable e) {
+                    throw new ExecutionException(e);
+                }
+            });
+            started.await();
+
+            assertEquals("direct", impatient.execute("ship-1", Duration.ZERO, () -> "direct"));
+            assertEquals(1, meterRegistry.counter("single_flight.calls", "name", "test", "result", "timed_out").count());
+            release.countDown();
+            assertEquals("stuck", stuck.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private double coalescedCalls() {
+        return meterRegistry.counter("single_flight.calls", "name", "test", "result", "coalesced").count();
+    }
+}
@@ -2,6 +2,7 @@ package com.drbaltar.continuityweek4.Controllers;
 
 import com.drbaltar.continuityweek4.Models.Crewmember;
 import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -15,11 +16,14 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -33,6 +37,8 @@ class CrewmemberControllerTest {
     MockMvc mvc;
     @Autowired
     CrewmemberRepository repository;
+    @Autowired
+    ObjectMapper objectMapper;
 
     @Test
     @Transactional
@@ -55,6 +61,28 @@ class CrewmemberControllerTest {
                 .andExpect(jsonPath("$.morale", is(100)));
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldCreateBatchOfCrewmembersFromNdjson() throws Exception {
+        String testCrewmembersNDJSON = """
+                { "name": "Alice", "morale": 100 }
+                { "name": "Bob", "morale": 90 }
+                """;
+        var request = post("/crewmember/batch")
+                .contentType("application/x-ndjson")
+                .content(testCrewmembersNDJSON);
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", instanceOf(Number.class)))
+                .andExpect(jsonPath("$[1].name", is("Bob")))
+                .andExpect(jsonPath("$[1].morale", is(90)));
+
+        assertEquals(2, getSizeOfDatabase());
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -95,6 +123,73 @@ class CrewmemberControllerTest {
                 .andExpect(jsonPath("$", hasSize(0)));
     }
 
+    // Contract shared by both list paths: the buffered array and the async NDJSON stream return the same rows in the same order
+    @Test
+    void shouldStreamSameCrewmembersAsListEndpoint() throws Exception {
+        var testCrewmembers = populateDBWithTestCrewmembers();
+
+        try {
+            var listed = objectMapper.readTree(mvc.perform(get("/crewmember"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            var streamResult = mvc.perform(get("/crewmember/stream"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            var streamed = mvc.perform(asyncDispatch(streamResult))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString().lines()
+                    .map(line -> {
+                        try {
+                            return objectMapper.readTree(line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+
+            assertEquals(testCrewmembers.length, streamed.size());
+            for (int i = 0; i < streamed.size(); i++)
+                assertEquals(listed.get(i), streamed.get(i));
+        } finally {
+            repository.deleteAll();
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldGetPageOfCrewmembersAfterCursor() throws Exception {
+        var testCrewmembers = populateDBWithTestCrewmembers();
+
+        var request = get("/crewmember")
+                .param("limit", "1")
+                .param("after", String.valueOf(testCrewmembers[0].getId()));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(testCrewmembers[1].getId().intValue())))
+                .andExpect(jsonPath("$[0].name", is(testCrewmembers[1].getName())));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldSearchCrewmembersWithMoraleBelowThreshold() throws Exception {
+        var testCrewmembers = populateDBWithTestCrewmembers();
+        testCrewmembers[1].setMorale(20);
+        repository.save(testCrewmembers[1]);
+
+        var request = get("/crewmember/search")
+                .param("moraleBelow", "50");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Joe")))
+                .andExpect(jsonPath("$[0].morale", is(20)));
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -110,6 +205,40 @@ class CrewmemberControllerTest {
         assertEquals(testCrewmemberNames.length - 1, getSizeOfDatabase());
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldDeleteCrewmembersByIds() throws Exception {
+        var testCrewmembers = populateDBWithTestCrewmembers();
+
+        var request = delete("/crewmember")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[%d, %d]".formatted(testCrewmembers[0].getId(), testCrewmembers[2].getId()));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(2)));
+        assertEquals(testCrewmemberNames.length - 2, getSizeOfDatabase());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldPatchAllCrewmembersWithMoraleBelowThreshold() throws Exception {
+        var testCrewmembers = populateDBWithTestCrewmembers();
+        repository.updateMorale(testCrewmembers[1].getId(), 5);
+
+        var request = patch("/crewmember")
+                .param("moraleBelow", "10")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"morale\": \"50\" }");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(1)));
+        assertEquals(50, repository.findById(testCrewmembers[1].getId()).orElseThrow().getMorale());
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -160,6 +289,132 @@ class CrewmemberControllerTest {
         assertEquals(testCrewmemberNames.length, getSizeOfDatabase());
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldServeUpdatedCrewmemberAfterPutWhenPreviouslyCached() throws Exception {
+        var testCrewmember = populateDBWithTestCrewmembers()[0];
+        mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                .andExpect(jsonPath("$.name", is(testCrewmember.getName())));
+        String testCrewmemberJSON = """
+                {
+                    "name": "Jen",
+                    "morale": 95
+                }
+                """;
+
+        mvc.perform(put("/crewmember/%d".formatted(testCrewmember.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(testCrewmemberJSON));
+
+        mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Jen")))
+                .andExpect(jsonPath("$.morale", is(95)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldServePatchedCrewmemberWhenPreviouslyCached() throws Exception {
+        var testCrewmember = populateDBWithTestCrewmembers()[0];
+        mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                .andExpect(jsonPath("$.morale", is(100)));
+
+        mvc.perform(patch("/crewmember/%d".formatted(testCrewmember.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"morale\": 75 }"));
+
+        mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(testCrewmember.getName())))
+                .andExpect(jsonPath("$.morale", is(75)));
+    }
+
+    // Not transactional, so the GET really puts the row into the shared cache before the PATCH runs
+    @Test
+    void shouldRespondWithPatchedCrewmemberWhenPreviouslyCached() throws Exception {
+        var testCrewmember = repository.save(getTestCrewmember("Jennifer"));
+
+        try {
+            mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                    .andExpect(jsonPath("$.morale", is(100)));
+
+            mvc.perform(patch("/crewmember/%d".formatted(testCrewmember.getId()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{ \"morale\": 75 }"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", EntityTags.of(testCrewmember.getVersion() + 1)))
+                    .andExpect(jsonPath("$.morale", is(75)));
+        } finally {
+            repository.deleteById(testCrewmember.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldNotServeDeletedCrewmemberWhenPreviouslyCached() throws Exception {
+        var testCrewmember = populateDBWithTestCrewmembers()[0];
+        mvc.perform(get("/crewmember/%d".formatted(testCrewmember.getId())))
+                .andExpect(jsonPath("$.id", is(testCrewmember.getId().intValue())));
+
+        mvc.perform(delete("/crewmember/%d".formatted(testCrewmember.getId())));
+
+        assertTrue(repository.findById(testCrewmember.getId()).isEmpty());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldAddDeltaToCrewmemberMorale() throws Exception {
+        var testCrewmember = populateDBWithTestCrewmembers()[0];
+
+        var request = post("/crewmember/%d/morale:add".formatted(testCrewmember.getId()))
+                .param("delta", "-25");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(testCrewmember.getId().intValue())))
+                .andExpect(jsonPath("$.morale", is(75)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldReturnNotModifiedWhenCrewmemberETagMatches() throws Exception {
+        var testCrewmember = repository.save(getTestCrewmember("Jennifer"));
+
+        var request = get("/crewmember/%d".formatted(testCrewmember.getId()))
+                .header("If-None-Match", "\"0\"");
+
+        mvc.perform(request)
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"0\""))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectCrewmemberPutWithStaleIfMatch() throws Exception {
+        var testCrewmember = repository.save(getTestCrewmember("Jennifer"));
+        String testCrewmemberJSON = """
+                {
+                    "name": "Jen",
+                    "morale": 95
+                }
+                """;
+
+        var request = put("/crewmember/%d".formatted(testCrewmember.getId()))
+                .header("If-Match", "\"3\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(testCrewmemberJSON);
+
+        mvc.perform(request)
+                .andExpect(status().isPreconditionFailed());
+    }
+
     private int getSizeOfDatabase() {
         var dbEntries = repository.findAll();
         AtomicInteger sizeOfDB = new AtomicInteger();
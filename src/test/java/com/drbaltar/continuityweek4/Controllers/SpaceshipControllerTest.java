@@ -1,7 +1,13 @@
 package com.drbaltar.continuityweek4.Controllers;
 
+import com.drbaltar.continuityweek4.Models.Crewmember;
 import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
 import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
@@ -9,16 +15,32 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.servlet.http.Cookie;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -32,6 +54,22 @@ public class SpaceshipControllerTest {
     MockMvc mvc;
     @Autowired
     SpaceshipRepository repository;
+    @Autowired
+    CrewmemberRepository crewmemberRepository;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    SpaceshipController controller;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    MeterRegistry meterRegistry;
 
     @Test
     @Transactional
@@ -54,6 +92,47 @@ public class SpaceshipControllerTest {
                 .andExpect(jsonPath("$.fuel", is(100)));
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldSaveBatchOfSpaceshipsToDB() throws Exception {
+        String testSpaceshipsJSON = """
+                [
+                  { "name": "Apollo 11", "fuel": 100 },
+                  { "name": "Apollo 13", "fuel": 80 }
+                ]
+                """;
+        var request = post("/spaceship/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(testSpaceshipsJSON);
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", instanceOf(Number.class)))
+                .andExpect(jsonPath("$[1].name", is("Apollo 13")))
+                .andExpect(jsonPath("$[1].fuel", is(80)));
+
+        assertEquals(2, getSizeOfDatabase());
+    }
+
+    @Test
+    void shouldSaveNothingWhenNdjsonBatchHasMalformedLine() throws Exception {
+        var body = new StringBuilder();
+        for (int i = 0; i < 60; i++)
+            body.append("{ \"name\": \"Spaceship %d\", \"fuel\": 100 }\n".formatted(i));
+        body.append("{ \"name\": \n");
+
+        try {
+            mvc.perform(post("/spaceship/batch").contentType("application/x-ndjson").content(body.toString()))
+                    .andExpect(status().isBadRequest());
+
+            assertEquals(0, getSizeOfDatabase());
+        } finally {
+            repository.deleteAll();
+        }
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -83,6 +162,48 @@ public class SpaceshipControllerTest {
                 .andExpect(jsonPath("$", hasSize(testSpaceshipNames.length)));
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldWriteSameFieldsAsEntityWhenListingSpaceships() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+
+        var request = get("/spaceship");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[0].id", is(testSpaceship.getId().intValue())))
+                .andExpect(jsonPath("$[0].name", is(testSpaceship.getName())))
+                .andExpect(jsonPath("$[0].fuel", is(testSpaceship.getFuel())))
+                .andExpect(jsonPath("$[0].version", is(0)))
+                .andExpect(jsonPath("$[0].*", hasSize(4)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldNegotiateCborForSpaceshipListAndSingleSpaceship() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+        var cborMapper = new ObjectMapper(new CBORFactory());
+
+        var listBody = mvc.perform(get("/spaceship").accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn().getResponse().getContentAsByteArray();
+        var singleBody = mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())).accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andExpect(header().string("Vary", containsString("Accept")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(testSpaceshipNames.length, cborMapper.readTree(listBody).size());
+        var jsonListETag = mvc.perform(get("/spaceship")).andReturn().getResponse().getHeader("ETag");
+        mvc.perform(get("/spaceship").accept("application/cbor").header("If-None-Match", jsonListETag))
+                .andExpect(status().isOk());
+        assertEquals(testSpaceship.getName(), cborMapper.readValue(singleBody, Spaceship.class).getName());
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -94,6 +215,133 @@ public class SpaceshipControllerTest {
                 .andExpect(jsonPath("$", hasSize(0)));
     }
 
+    // Contract shared by both list paths: the buffered array and the async NDJSON stream return the same rows in the same order
+    @Test
+    void shouldStreamSameSpaceshipsAsListEndpoint() throws Exception {
+        var testSpaceships = populateDBWithTestSpaceships();
+
+        try {
+            var listed = objectMapper.readTree(mvc.perform(get("/spaceship"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            var streamResult = mvc.perform(get("/spaceship/stream"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            var streamed = mvc.perform(asyncDispatch(streamResult))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString().lines()
+                    .map(line -> {
+                        try {
+                            return objectMapper.readTree(line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+
+            assertEquals(testSpaceships.length, streamed.size());
+            for (int i = 0; i < streamed.size(); i++)
+                assertEquals(listed.get(i), streamed.get(i));
+        } finally {
+            repository.deleteAll();
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldGetPageOfSpaceshipsAfterCursor() throws Exception {
+        var testSpaceships = populateDBWithTestSpaceships();
+
+        var request = get("/spaceship")
+                .param("limit", "1")
+                .param("after", String.valueOf(testSpaceships[0].getId()));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(testSpaceships[1].getId().intValue())))
+                .andExpect(jsonPath("$[0].name", is(testSpaceships[1].getName())));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldSearchSpaceshipsByNamePrefixAndFuel() throws Exception {
+        var testSpaceships = populateDBWithTestSpaceships();
+        testSpaceships[2].setFuel(5);
+        repository.save(testSpaceships[2]);
+
+        var request = get("/spaceship/search")
+                .param("name", "Apollo")
+                .param("fuelBelow", "10");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Apollo 13")))
+                .andExpect(jsonPath("$[0].fuel", is(5)));
+    }
+
+    @Test
+    void shouldServeFuelStatistics() throws Exception {
+        var request = get("/spaceship/stats");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.field", is("fuel")))
+                .andExpect(jsonPath("$.count", instanceOf(Number.class)))
+                .andExpect(jsonPath("$.histogram", hasSize(6)))
+                .andExpect(jsonPath("$.maxStaleness", notNullValue()));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldGetCrewOfSpaceshipById() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+        crewmemberRepository.saveAll(List.of(
+                getTestCrewmember("Jennifer", testSpaceship),
+                getTestCrewmember("Joe", testSpaceship)));
+
+        var request = get("/spaceship/%d/crew".formatted(testSpaceship.getId()));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].name", is("Jennifer")))
+                .andExpect(jsonPath("$[0].spaceshipId", is(testSpaceship.getId().intValue())));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldLoadManifestOfAPageOfSpaceshipsInConstantNumberOfStatements() throws Exception {
+        var testSpaceships = new ArrayList<Spaceship>();
+        for (int i = 0; i < 1000; i++)
+            testSpaceships.add(getTestSpaceship("Spaceship %d".formatted(i)));
+        repository.saveAll(testSpaceships);
+        crewmemberRepository.saveAll(testSpaceships.stream()
+                .map(spaceship -> getTestCrewmember("Crew of " + spaceship.getName(), spaceship))
+                .toList());
+        entityManager.flush();
+        var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        var request = get("/spaceship").param("include", "crew").param("limit", "1000");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1000)))
+                .andExpect(jsonPath("$[999].crew", hasSize(1)))
+                .andExpect(jsonPath("$[999].crew[0].name", is("Crew of Spaceship 999")));
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        mvc.perform(get("/spaceship").param("include", "crew"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(Integer.parseInt(KeysetPages.DEFAULT_LIMIT))));
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -108,6 +356,101 @@ public class SpaceshipControllerTest {
         assertEquals(testSpaceshipNames.length - 1, getSizeOfDatabase());
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldDeleteSpaceshipsByIdsAndUnassignTheirCrew() throws Exception {
+        var testSpaceships = populateDBWithTestSpaceships();
+        var crewmember = crewmemberRepository.save(getTestCrewmember("Neil Armstrong", testSpaceships[0]));
+
+        var request = delete("/spaceship")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[%d, %d, %d]".formatted(testSpaceships[0].getId(), testSpaceships[1].getId(), Long.MAX_VALUE));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(2)));
+        assertEquals(1, getSizeOfDatabase());
+        assertTrue(repository.findById(testSpaceships[0].getId()).isEmpty());
+        assertNull(crewmemberRepository.findById(crewmember.getId()).orElseThrow().getSpaceshipId());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldPatchAllSpaceshipsMatchingFilterWithOneUpdateStatement() throws Exception {
+        populateDBWithTestSpaceships();
+        entityManager.flush();
+        var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        var request = patch("/spaceship")
+                .param("name", "Apollo")
+                .param("fuelBelow", "101")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": \"10\" }");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(2)));
+        // One locking read of the old fuel values for the statistics, then the single UPDATE
+        assertEquals(2, statistics.getPrepareStatementCount());
+        mvc.perform(get("/spaceship/search").param("fuelBelow", "11"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[*].name", everyItem(startsWith("Apollo"))));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldDeleteMoreSpaceshipIdsThanFitInARequestLine() throws Exception {
+        var testSpaceships = populateDBWithTestSpaceships();
+        var ids = new ArrayList<Long>();
+        for (var spaceship : testSpaceships)
+            ids.add(spaceship.getId());
+        for (long id = Long.MAX_VALUE - 3000; id < Long.MAX_VALUE; id++)
+            ids.add(id);
+
+        var request = delete("/spaceship")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(ids));
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(testSpaceships.length)));
+        assertEquals(0, getSizeOfDatabase());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldMatchBulkPatchNamePrefixLiterally() throws Exception {
+        repository.saveAll(Arrays.asList(getTestSpaceshipArray(new String[]{"100% Fuel", "1000 Fuel"})));
+
+        var request = patch("/spaceship")
+                .param("name", "100%")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": \"10\" }");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affectedRows", is(1)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectUnfilteredBulkSpaceshipPatch() throws Exception {
+        populateDBWithTestSpaceships();
+
+        var request = patch("/spaceship")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": \"0\" }");
+
+        mvc.perform(request)
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @Transactional
     @Rollback
@@ -182,6 +525,301 @@ public class SpaceshipControllerTest {
 //        assertEquals(testSpaceshipNames.length, getSizeOfDatabase());
     }
 
+    @Test
+    @Transactional
+    @Rollback
+    void shouldServeUpdatedSpaceshipAfterPutWhenPreviouslyCached() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(jsonPath("$.name", is(testSpaceship.getName())));
+        String testSpaceshipJSON = """
+                {
+                  "name": "Challenger",
+                  "fuel": 90
+                }
+                """;
+
+        mvc.perform(put("/spaceship/%d".formatted(testSpaceship.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(testSpaceshipJSON));
+
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Challenger")))
+                .andExpect(jsonPath("$.fuel", is(90)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldPatchSeveralFieldsWithOneVersionBump() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+
+        mvc.perform(patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{ \"name\": \"Challenger\", \"fuel\": 40 }"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1\""))
+                .andExpect(jsonPath("$.name", is("Challenger")))
+                .andExpect(jsonPath("$.fuel", is(40)));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectPatchWithMalformedNumber() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+
+        mvc.perform(patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{ \"fuel\": \"lots\" }"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldServePatchedSpaceshipWhenPreviouslyCached() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(jsonPath("$.fuel", is(100)));
+
+        mvc.perform(patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": 75 }"));
+
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(testSpaceship.getName())))
+                .andExpect(jsonPath("$.fuel", is(75)));
+    }
+
+    // Not transactional, so the GET really puts the row into the shared cache before the PATCH runs
+    @Test
+    void shouldRespondWithPatchedSpaceshipWhenPreviouslyCached() throws Exception {
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+
+        try {
+            mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                    .andExpect(jsonPath("$.fuel", is(100)));
+
+            mvc.perform(patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{ \"fuel\": 75 }"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", EntityTags.of(testSpaceship.getVersion() + 1)))
+                    .andExpect(jsonPath("$.fuel", is(75)));
+        } finally {
+            repository.deleteById(testSpaceship.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldNotServeDeletedSpaceshipWhenPreviouslyCached() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(jsonPath("$.id", is(testSpaceship.getId().intValue())));
+
+        mvc.perform(delete("/spaceship/%d".formatted(testSpaceship.getId())));
+
+        assertTrue(repository.findById(testSpaceship.getId()).isEmpty());
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldAddDeltaToSpaceshipFuel() throws Exception {
+        var testSpaceship = populateDBWithTestSpaceships()[0];
+
+        var request = post("/spaceship/%d/fuel:add".formatted(testSpaceship.getId()))
+                .param("delta", "-10");
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(testSpaceship.getId().intValue())))
+                .andExpect(jsonPath("$.fuel", is(90)));
+    }
+
+    @Test
+    void shouldRunOneQueryForBurstOfIdenticalListReads() throws Exception {
+        int readers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        var statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        var coalescedBefore = coalescedSpaceshipReads();
+
+        try (var lockHolder = Objects.requireNonNull(jdbcTemplate.getDataSource()).getConnection();
+             var lock = lockHolder.createStatement()) {
+            // Hold the first reader's query inside MySQL until every other reader has joined it
+            lock.execute("lock tables spaceship write");
+            var responses = new ArrayList<Future<Integer>>();
+            try {
+                for (int i = 0; i < readers; i++)
+                    responses.add(executor.submit(() -> mvc.perform(get("/spaceship")).andReturn().getResponse().getStatus()));
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (coalescedSpaceshipReads() < coalescedBefore + readers - 1 && System.nanoTime() < deadline)
+                    Thread.sleep(1);
+            } finally {
+                lock.execute("unlock tables");
+            }
+            for (var response : responses)
+                assertEquals(200, response.get(10, TimeUnit.SECONDS));
+
+            assertEquals(readers - 1, coalescedSpaceshipReads() - coalescedBefore);
+            assertEquals(1, statistics.getQueryExecutionCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldNotLoseConcurrentFuelDeltas() throws Exception {
+        int threads = 8;
+        int deltasPerThread = 50;
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int i = 0; i < threads * deltasPerThread; i++)
+                executor.submit(() -> controller.addFuelBySpaceshipID(testSpaceship.getId(), 1));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+            assertEquals(100 + threads * deltasPerThread, repository.findById(testSpaceship.getId()).orElseThrow().getFuel());
+        } finally {
+            repository.deleteById(testSpaceship.getId());
+        }
+    }
+
+    @Test
+    void shouldNotCacheUncommittedReadsFromInsideWriteTransaction() {
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                repository.addFuel(testSpaceship.getId(), 50);
+                assertEquals(150, repository.findById(testSpaceship.getId()).orElseThrow().getFuel());
+                status.setRollbackOnly();
+            });
+
+            assertEquals(100, repository.findById(testSpaceship.getId()).orElseThrow().getFuel());
+        } finally {
+            repository.deleteById(testSpaceship.getId());
+        }
+    }
+
+    @Test
+    void shouldNotKeepRowCachedByConcurrentReaderBeforeWriterCommitted() throws Exception {
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+        var updated = new CountDownLatch(1);
+        var cachedOldRow = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+
+        try {
+            var commit = writer.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                repository.addFuel(testSpaceship.getId(), 50);
+                updated.countDown();
+                try {
+                    assertTrue(cachedOldRow.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(updated.await(10, TimeUnit.SECONDS));
+            // Reads the committed row while the update is still open and caches it
+            assertEquals(100, repository.findById(testSpaceship.getId()).orElseThrow().getFuel());
+            cachedOldRow.countDown();
+            commit.get(10, TimeUnit.SECONDS);
+
+            assertEquals(150, repository.findById(testSpaceship.getId()).orElseThrow().getFuel());
+        } finally {
+            writer.shutdownNow();
+            repository.deleteById(testSpaceship.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldReturnNotModifiedWhenSpaceshipETagMatches() throws Exception {
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+
+        mvc.perform(get("/spaceship/%d".formatted(testSpaceship.getId())))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"0\""));
+
+        var request = get("/spaceship/%d".formatted(testSpaceship.getId()))
+                .header("If-None-Match", "\"0\"");
+
+        mvc.perform(request)
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldReturnNotModifiedWhenSpaceshipListETagMatches() throws Exception {
+        populateDBWithTestSpaceships();
+        var listETag = mvc.perform(get("/spaceship"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        var request = get("/spaceship")
+                .header("If-None-Match", listETag);
+
+        mvc.perform(request)
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void shouldNotReturnNotModifiedAfterAnotherNodeChangedSpaceships() throws Exception {
+        try {
+            repository.save(getTestSpaceship("Apollo 11"));
+            var listETag = mvc.perform(get("/spaceship"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader("ETag");
+
+            // Another node's committed write only reaches this node through the shared table version
+            jdbcTemplate.update("update table_change set changes = changes + 1 where table_name = 'spaceship'");
+
+            mvc.perform(get("/spaceship").header("If-None-Match", listETag))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", not(listETag)));
+        } finally {
+            repository.deleteAll();
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectSpaceshipPatchWithStaleIfMatch() throws Exception {
+        var testSpaceship = repository.save(getTestSpaceship("Apollo 11"));
+
+        var staleRequest = patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                .header("If-Match", "\"7\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": 50 }");
+        mvc.perform(staleRequest)
+                .andExpect(status().isPreconditionFailed());
+
+        var currentRequest = patch("/spaceship/%d".formatted(testSpaceship.getId()))
+                .header("If-Match", "\"0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{ \"fuel\": 50 }");
+        mvc.perform(currentRequest)
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1\""))
+                .andExpect(jsonPath("$.fuel", is(50)));
+    }
+
+    private double coalescedSpaceshipReads() {
+        return meterRegistry.counter("single_flight.calls", "name", "spaceship", "result", "coalesced").count();
+    }
+
     private int getSizeOfDatabase() {
         var dbEntries = repository.findAll();
         AtomicInteger sizeOfDB = new AtomicInteger();
@@ -202,6 +840,14 @@ public class SpaceshipControllerTest {
         return testSpaceshipArray;
     }
 
+    private Crewmember getTestCrewmember(String name, Spaceship spaceship) {
+        var testCrewmember = new Crewmember();
+        testCrewmember.setName(name);
+        testCrewmember.setMorale(100);
+        testCrewmember.setSpaceshipId(spaceship.getId());
+        return testCrewmember;
+    }
+
     private Spaceship getTestSpaceship(String name) {
         var testSpaceship = new Spaceship();
         testSpaceship.setName(name);
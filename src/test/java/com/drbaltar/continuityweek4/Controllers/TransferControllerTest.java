@@ -0,0 +1,148 @@
+package com.drbaltar.continuityweek4.Controllers;
+
+import com.drbaltar.continuityweek4.Models.Crewmember;
+import com.drbaltar.continuityweek4.Models.Spaceship;
+import com.drbaltar.continuityweek4.Repositories.CrewmemberRepository;
+import com.drbaltar.continuityweek4.Repositories.SpaceshipRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class TransferControllerTest {
+
+    @Autowired
+    MockMvc mvc;
+    @Autowired
+    SpaceshipRepository spaceshipRepository;
+    @Autowired
+    CrewmemberRepository crewmemberRepository;
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRestoreExportedFleetWithOriginalIds() throws Exception {
+        var spaceship = new Spaceship();
+        spaceship.setName("Apollo 11");
+        spaceship.setFuel(100);
+        spaceship = spaceshipRepository.save(spaceship);
+        var crewmember = new Crewmember();
+        crewmember.setName("Jennifer");
+        crewmember.setMorale(80);
+        crewmember.setSpaceshipId(spaceship.getId());
+        crewmember = crewmemberRepository.save(crewmember);
+        entityManager.flush();
+
+        var export = mvc.perform(get("/export"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(TransferController.GZIP))
+                .andReturn().getResponse().getContentAsByteArray();
+        crewmemberRepository.deleteById(crewmember.getId());
+        spaceshipRepository.deleteById(spaceship.getId());
+        entityManager.flush();
+        entityManager.clear();
+
+        mvc.perform(post("/import").contentType(TransferController.GZIP).content(export))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.spaceships", is(1)))
+                .andExpect(jsonPath("$.crewmembers", is(1)))
+                .andExpect(jsonPath("$.checkpointType", is("crewmember")))
+                .andExpect(jsonPath("$.error", nullValue()));
+
+        var restored = crewmemberRepository.findById(crewmember.getId()).orElseThrow();
+        assertEquals("Jennifer", restored.getName());
+        assertEquals(80, restored.getMorale());
+        assertEquals(spaceship.getId(), restored.getSpaceshipId());
+        assertTrue(spaceshipRepository.existsById(spaceship.getId()));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldSkipRowsUpToCheckpointAndReportCheckpointOnFailure() throws Exception {
+        var file = gzip("""
+                {"type":"spaceship","id":900001,"name":"Apollo 11","fuel":100,"version":0}
+                {"type":"spaceship","id":900002,"name":"Apollo 13","fuel":50,"version":0}
+                {"type":"starbase","id":1}
+                """);
+
+        mvc.perform(post("/import").param("after", "900001").contentType(TransferController.GZIP).content(file))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.spaceships", is(0)))
+                .andExpect(jsonPath("$.checkpointType", is("spaceship")))
+                .andExpect(jsonPath("$.checkpointId", is(900001)))
+                .andExpect(jsonPath("$.error", is("Unknown row type at line 3")));
+
+        // The bad line arrived before 900002's chunk was written, so nothing past the checkpoint is in the table
+        assertFalse(spaceshipRepository.existsById(900001L));
+        assertFalse(spaceshipRepository.existsById(900002L));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectFileCutShortBeforeItsTrailer() throws Exception {
+        var file = gzip("""
+                {"type":"spaceship","id":900001,"name":"Apollo 11","fuel":100,"version":0}
+                {"type":"spaceship","id":900002,"name":"Apollo 13","fuel":50,"version":0}
+                """);
+
+        mvc.perform(post("/import").contentType(TransferController.GZIP).content(file))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.spaceships", is(0)))
+                .andExpect(jsonPath("$.error", containsString("without a trailer")));
+
+        assertFalse(spaceshipRepository.existsById(900001L));
+    }
+
+    @Test
+    @Transactional
+    @Rollback
+    void shouldRejectFileWhoseRowCountsDoNotMatchItsTrailer() throws Exception {
+        var file = gzip("""
+                {"type":"spaceship","id":900001,"name":"Apollo 11","fuel":100,"version":0}
+                {"type":"trailer","spaceships":2,"crewmembers":0}
+                """);
+
+        mvc.perform(post("/import").contentType(TransferController.GZIP).content(file))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.error", containsString("do not match the trailer")));
+
+        assertFalse(spaceshipRepository.existsById(900001L));
+    }
+
+    @Test
+    void shouldRejectUnknownCheckpointTable() throws Exception {
+        mvc.perform(get("/export").param("from", "starbase"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static byte[] gzip(String lines) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(lines.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
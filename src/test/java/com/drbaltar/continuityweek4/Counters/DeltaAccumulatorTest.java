@@ -0,0 +1,117 @@
+package com.drbaltar.continuityweek4.Counters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaAccumulatorTest {
+
+    @Test
+    void shouldNotLoseDeltasAddedConcurrentlyWithFlushes() throws Exception {
+        int threads = 8;
+        int deltasPerThread = 100_000;
+        var flushed = new ConcurrentHashMap<Long, Long>();
+        var accumulator = new DeltaAccumulator((id, delta) -> flushed.merge(id, delta, Long::sum));
+        var adding = new AtomicBoolean(true);
+        var flusher = new Thread(() -> {
+            while (adding.get())
+                accumulator.flush();
+        });
+        ExecutorService adders = Executors.newFixedThreadPool(threads);
+
+        flusher.start();
+        for (int t = 0; t < threads; t++) {
+            adders.submit(() -> {
+                for (int i = 0; i < deltasPerThread; i++)
+                    accumulator.add((long) (i % 4), 1);
+            });
+        }
+        adders.shutdown();
+        assertTrue(adders.awaitTermination(30, TimeUnit.SECONDS));
+        adding.set(false);
+        flusher.join();
+        accumulator.flush();
+
+        long total = flushed.values().stream().mapToLong(Long::longValue).sum();
+        assertEquals((long) threads * deltasPerThread, total);
+        assertEquals((long) threads * deltasPerThread / 4, flushed.get(0L));
+    }
+
+    @Test
+    void shouldKeepDeltasForNextFlushWhenFlushFails() {
+        var failNextFlush = new AtomicBoolean(true);
+        var flushed = new ConcurrentHashMap<Long, Long>();
+        var accumulator = new DeltaAccumulator((id, delta) -> {
+            if (failNextFlush.getAndSet(false))
+                throw new IllegalStateException("database unavailable");
+            flushed.put(id, delta);
+        });
+        accumulator.add(1L, 5);
+
+        assertThrows(IllegalStateException.class, accumulator::flush);
+        accumulator.flush();
+
+        assertEquals(Map.of(1L, 5L), flushed);
+    }
+
+    @Test
+    void shouldFlushOnlyRequestedIds() {
+        var flushed = new ConcurrentHashMap<Long, Long>();
+        var accumulator = new DeltaAccumulator((id, delta) -> flushed.merge(id, delta, Long::sum));
+        accumulator.add(1L, 5);
+        accumulator.add(2L, 7);
+
+        accumulator.flush(List.of(1L, 3L));
+        assertEquals(Map.of(1L, 5L), flushed);
+
+        accumulator.flush();
+        assertEquals(Map.of(1L, 5L, 2L, 7L), flushed);
+    }
+
+    @Test
+    void shouldNotReapplyIdsThatCommittedBeforeAnotherIdFailed() {
+        var flushed = new ConcurrentHashMap<Long, Long>();
+        var failingId = new AtomicLong(2L);
+        var accumulator = new DeltaAccumulator((id, delta) -> {
+            if (id == failingId.get())
+                throw new IllegalStateException("database unavailable");
+            flushed.merge(id, delta, Long::sum);
+        });
+        accumulator.add(1L, 5);
+        accumulator.add(2L, 7);
+
+        assertThrows(IllegalStateException.class, () -> accumulator.flush(List.of(1L, 2L)));
+        failingId.set(0L);
+        accumulator.flush();
+
+        assertEquals(Map.of(1L, 5L, 2L, 7L), flushed);
+    }
+
+    @Test
+    void shouldDropIdsThatStayIdleForAWholeFlushInterval() {
+        var flushed = new ConcurrentHashMap<Long, Long>();
+        var accumulator = new DeltaAccumulator((id, delta) -> flushed.merge(id, delta, Long::sum));
+        for (long id = 0; id < 1000; id++)
+            accumulator.add(id, 1);
+
+        accumulator.flush();
+        assertEquals(1000, accumulator.pendingIds());
+        accumulator.flush();
+        assertEquals(0, accumulator.pendingIds());
+
+        accumulator.add(7L, 2);
+        accumulator.flush();
+        assertEquals(3L, flushed.get(7L));
+    }
+}
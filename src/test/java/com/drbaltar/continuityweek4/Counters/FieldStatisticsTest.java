@@ -0,0 +1,102 @@
+package com.drbaltar.continuityweek4.Counters;
+
+import com.drbaltar.continuityweek4.Models.FieldStatisticsSnapshot.Bucket;
+import com.drbaltar.continuityweek4.Models.ValueFrequency;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldStatisticsTest {
+
+    private final FieldStatistics statistics = new FieldStatistics("fuel", new int[]{10, 50}, Duration.ofSeconds(10));
+
+    @Test
+    void shouldMaintainAggregatesIncrementally() {
+        statistics.reconcile(List::of);
+        statistics.recordAdded(5);
+        statistics.recordAdded(10);
+        statistics.recordAdded(80);
+        statistics.recordChanged(80, 40);
+
+        var snapshot = statistics.snapshot();
+
+        assertEquals(3, snapshot.count());
+        assertEquals(55, snapshot.sum());
+        assertEquals(5, snapshot.min());
+        assertEquals(40, snapshot.max());
+        assertEquals(List.of(new Bucket(null, 10, 1), new Bucket(10, 50, 2), new Bucket(50, null, 0)), snapshot.histogram());
+        assertTrue(snapshot.exact());
+    }
+
+    @Test
+    void shouldStayExactThroughBulkChangesAndRemovals() {
+        statistics.reconcile(() -> List.of(new ValueFrequency(5, 2), new ValueFrequency(60, 1)));
+        statistics.recordAllChanged(List.of(5, 60), 30);
+        statistics.recordAllRemoved(List.of(5));
+        statistics.recordRemoved(30);
+
+        var snapshot = statistics.snapshot();
+
+        assertEquals(1, snapshot.count());
+        assertEquals(30, snapshot.min());
+        assertEquals(30, snapshot.max());
+        assertEquals(List.of(new Bucket(null, 10, 0), new Bucket(10, 50, 1), new Bucket(50, null, 0)), snapshot.histogram());
+        assertTrue(snapshot.exact());
+    }
+
+    @Test
+    void shouldStayInexactUntilReconciledAfterUnknownChange() {
+        statistics.reconcile(List::of);
+        statistics.recordAdded(5);
+        statistics.recordUnknownChange();
+        assertFalse(statistics.snapshot().exact());
+
+        statistics.reconcile(() -> List.of(new ValueFrequency(5, 2), new ValueFrequency(60, 1)));
+
+        var snapshot = statistics.snapshot();
+        assertTrue(snapshot.exact());
+        assertEquals(3, snapshot.count());
+        assertEquals(60, snapshot.max());
+    }
+
+    @Test
+    void shouldNotClaimExactnessWhenWriteRacesReconciliation() {
+        statistics.reconcile(() -> {
+            statistics.recordAdded(20);
+            return List.of(new ValueFrequency(20, 1));
+        });
+
+        assertFalse(statistics.snapshot().exact());
+    }
+
+    @Test
+    void shouldNotClaimExactnessWhileCommittedWriteIsNotYetApplied() {
+        statistics.reconcile(List::of);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            statistics.recordAdded(20);
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            // The row is committed and visible to the query, but its afterCommit has not run yet
+            statistics.reconcile(() -> List.of(new ValueFrequency(20, 1)));
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertFalse(statistics.snapshot().exact());
+
+        statistics.reconcile(() -> List.of(new ValueFrequency(20, 1)));
+
+        var snapshot = statistics.snapshot();
+        assertTrue(snapshot.exact());
+        assertEquals(1, snapshot.count());
+    }
+}
@@ -0,0 +1,137 @@
+package com.drbaltar.continuityweek4.Events;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeEventBusTest {
+
+    @Test
+    void shouldDeliverOnlyEventsOfTheSubscribedType() throws Exception {
+        var bus = new ChangeEventBus(16, 16, 2, Duration.ofSeconds(5));
+        var sink = new RecordingSink(2);
+        bus.subscribe("spaceship", null, sink);
+
+        bus.publish("spaceship", ChangeEventBus.CREATED, 1L, null);
+        bus.publish("crewmember", ChangeEventBus.CREATED, 7L, null);
+        bus.publish("spaceship", ChangeEventBus.DELETED, 1L, null);
+
+        assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(ChangeEventBus.CREATED, ChangeEventBus.DELETED),
+                sink.events.stream().map(ChangeEvent::action).toList());
+    }
+
+    @Test
+    void shouldReplayEventsPublishedAfterLastEventId() throws Exception {
+        var bus = new ChangeEventBus(16, 16, 2, Duration.ofSeconds(5));
+        for (long id = 1; id <= 5; id++)
+            bus.publish("spaceship", ChangeEventBus.UPDATED, id, null);
+
+        var sink = new RecordingSink(3);
+        bus.subscribe(null, 2L, sink);
+
+        assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(3L, 4L, 5L), sink.events.stream().map(ChangeEvent::id).toList());
+    }
+
+    @Test
+    void shouldDropSubscriberThatFallsTooFarBehindWithoutBlockingPublishers() throws Exception {
+        var bus = new ChangeEventBus(64, 8, 2, Duration.ofSeconds(5));
+        var unblock = new CountDownLatch(1);
+        var closed = new CountDownLatch(1);
+        bus.subscribe(null, null, new ChangeEventBus.EventSink() {
+            @Override
+            public void send(ChangeEvent event) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+
+        for (long id = 1; id <= 32; id++)
+            bus.publish("spaceship", ChangeEventBus.UPDATED, id, null);
+        unblock.countDown();
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldSendResetWhenLastEventIdIsOlderThanTheRingHolds() throws Exception {
+        var bus = new ChangeEventBus(16, 4, 2, Duration.ofSeconds(5));
+        for (long id = 1; id <= 10; id++)
+            bus.publish("spaceship", ChangeEventBus.UPDATED, id, null);
+
+        var sink = new RecordingSink(2);
+        bus.subscribe(null, 2L, sink);
+        bus.publish("spaceship", ChangeEventBus.UPDATED, 11L, null);
+
+        assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(ChangeEventBus.RESET, ChangeEventBus.UPDATED), sink.events.stream().map(ChangeEvent::action).toList());
+        assertEquals(List.of(10L, 11L), sink.events.stream().map(ChangeEvent::id).toList());
+    }
+
+    @Test
+    void shouldFreeDispatcherThreadFromSendThatExceedsWriteTimeout() throws Exception {
+        var bus = new ChangeEventBus(16, 16, 1, Duration.ofMillis(100));
+        var closed = new CountDownLatch(1);
+        bus.subscribe(null, null, new ChangeEventBus.EventSink() {
+            @Override
+            public void send(ChangeEvent event) throws IOException {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        bus.publish("spaceship", ChangeEventBus.UPDATED, 1L, null);
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+
+        // The only dispatcher thread is free again, so a healthy subscriber still gets its events
+        var sink = new RecordingSink(1);
+        bus.subscribe(null, null, sink);
+        bus.publish("spaceship", ChangeEventBus.UPDATED, 2L, null);
+        assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class RecordingSink implements ChangeEventBus.EventSink {
+
+        private final List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received;
+
+        private RecordingSink(int expectedEvents) {
+            this.received = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public void send(ChangeEvent event) {
+            events.add(event);
+            received.countDown();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.drbaltar.continuityweek4.Routing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final DataSource primary = embeddedDatabase("primary");
+    private final DataSource replica = embeddedDatabase("replica");
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        ReplicaRoutingDataSource.setPinnedToPrimary(false);
+        routingDataSource.close();
+    }
+
+    @Test
+    void shouldSendReadOnlyTransactionsToReplicaAndEverythingElseToPrimary() {
+        var jdbcTemplate = routedJdbcTemplate(List.of(replica));
+
+        assertEquals("replica", inTransaction(jdbcTemplate, true));
+        assertEquals("primary", inTransaction(jdbcTemplate, false));
+        assertEquals("primary", jdbcTemplate.queryForObject("select name from origin", String.class));
+    }
+
+    @Test
+    void shouldReadFromPrimaryWhilePinned() {
+        var jdbcTemplate = routedJdbcTemplate(List.of(replica));
+
+        ReplicaRoutingDataSource.setPinnedToPrimary(true);
+
+        assertEquals("primary", inTransaction(jdbcTemplate, true));
+    }
+
+    @Test
+    void shouldSkipUnreachableReplicaInFavourOfHealthyOne() {
+        var jdbcTemplate = routedJdbcTemplate(List.of(new DriverManagerDataSource("jdbc:unreachable:replica"), replica));
+
+        for (int i = 0; i < 4; i++)
+            assertEquals("replica", inTransaction(jdbcTemplate, true));
+    }
+
+    @Test
+    void shouldFallBackToPrimaryWhenNoReplicaIsReachable() {
+        var jdbcTemplate = routedJdbcTemplate(List.of(new DriverManagerDataSource("jdbc:unreachable:replica")));
+
+        assertEquals("primary", inTransaction(jdbcTemplate, true));
+        assertEquals("primary", inTransaction(jdbcTemplate, true));
+    }
+
+    private JdbcTemplate routedJdbcTemplate(List<DataSource> replicas) {
+        routingDataSource = new ReplicaRoutingDataSource(primary, replicas, Duration.ofHours(1));
+        return new JdbcTemplate(new LazyConnectionDataSourceProxy(routingDataSource));
+    }
+
+    private static String inTransaction(JdbcTemplate jdbcTemplate, boolean readOnly) {
+        var transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status -> jdbcTemplate.queryForObject("select name from origin", String.class));
+    }
+
+    private static DataSource embeddedDatabase(String name) {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1".formatted(name));
+        var jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists origin (name varchar(16))");
+        jdbcTemplate.execute("delete from origin");
+        jdbcTemplate.update("insert into origin values (?)", name);
+        return dataSource;
+    }
+}